@@ -0,0 +1,115 @@
+package bounze;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import org.jbox2d.common.Vec2;
+
+/**
+ * Measure how level generation, simulation and painting scale with the
+ * number of edges and balls, using stress arenas.
+ */
+public final class Benchmark {
+
+    /* Default edge and ball counts to measure. */
+    private static final int[] EDGES = {10, 100, 1000, 5000};
+    private static final int[] BALLS = {1, 10, 100};
+
+    /** Ticks simulated per measurement. */
+    private static final int TICKS = 300;
+
+    /** Paints per measurement. */
+    private static final int PAINTS = 10;
+
+    /** Largest image dimension painted into; bigger arenas are shrunk. */
+    private static final int MAX_IMAGE = 1024;
+
+    /** Hidden constructor. */
+    private Benchmark() {
+    }
+
+    /**
+     * The main method. Optional arguments are comma-separated edge counts
+     * and ball counts to measure.
+     * @param args command line arguments
+     */
+    public static void main(final String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int[] edges = EDGES;
+        int[] balls = BALLS;
+        if (args.length > 0) {
+            edges = parse(args[0]);
+        }
+        if (args.length > 1) {
+            balls = parse(args[1]);
+        }
+        System.out.printf("%8s %6s %10s %10s %10s%n",
+                          "edges", "balls", "gen ms", "tick us", "paint ms");
+        for (int e : edges) {
+            for (int b : balls) {
+                run(e, b);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Measure a single stress arena and print the results.
+     * @param edges  the minimum number of edges
+     * @param balls  the number of balls
+     */
+    private static void run(final int edges, final int balls) {
+        Game game = new Game(Settings.stress(edges, balls), false);
+
+        /* Step until the first level, prepared in the background, is in. */
+        long start = System.nanoTime();
+        while (game.cleared()) {
+            game.step();
+        }
+        double gen = (System.nanoTime() - start) / 1e6;
+        int count = game.getLiveEdges().size();
+
+        start = System.nanoTime();
+        for (int i = 0; i < TICKS; i++) {
+            if (game.ballStopped()) {
+                game.shoot(new Vec2(1, (float) Math.sin(i)));
+            }
+            game.step();
+        }
+        double tick = (System.nanoTime() - start) / 1e3 / TICKS;
+
+        GamePanel view = new GamePanel(game);
+        game.deleteObserver(view);
+        int width = (int) (game.getSettings().getWidth() * GamePanel.SCALE);
+        int height = (int) (game.getSettings().getHeight() * GamePanel.SCALE);
+        double shrink = Math.min(1.0, (double) MAX_IMAGE
+                                 / Math.max(width, height));
+        BufferedImage image = new BufferedImage(
+            (int) Math.ceil(width * shrink), (int) Math.ceil(height * shrink),
+            BufferedImage.TYPE_INT_RGB);
+        start = System.nanoTime();
+        for (int i = 0; i < PAINTS; i++) {
+            Graphics2D g = image.createGraphics();
+            g.scale(shrink, shrink);
+            view.paintFrame(g, width, height);
+            g.dispose();
+        }
+        double paint = (System.nanoTime() - start) / 1e6 / PAINTS;
+
+        System.out.printf("%8d %6d %10.2f %10.1f %10.2f%n",
+                          count, balls, gen, tick, paint);
+    }
+
+    /**
+     * Parse a comma-separated list of integers.
+     * @param list  the list
+     * @return the integers
+     */
+    private static int[] parse(final String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
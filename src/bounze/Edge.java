@@ -2,6 +2,7 @@ package bounze;
 
 import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import org.jbox2d.common.Vec2;
@@ -23,10 +24,18 @@ public class Edge {
     private final Vec2 b;
 
     /** JBox2D Body object that represents thid edge. */
+    @Getter @Setter @NonNull
+    private Body body;
+
+    /** Identifies this edge within its game, e.g. to spectators. */
     @Getter
-    private final Body body;
+    private final int id;
 
     /** Tick number this edge was destroyed. */
     @Getter @Setter
     private long deathTick = -1;
+
+    /** False once this edge has been hit or cleared away. */
+    @Getter @Setter
+    private boolean alive = true;
 }
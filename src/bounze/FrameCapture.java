@@ -0,0 +1,218 @@
+package bounze;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+import lombok.extern.java.Log;
+
+/**
+ * Renders every tick of a game to offscreen images and writes them out
+ * as an image sequence.
+ *
+ * Frames are drawn with the same code as the on-screen GamePanel into a
+ * fixed pool of images, then handed to a pool of encoder threads. The
+ * pool size is the only buffer between the simulation and the encoders:
+ * a live game drops frames when it is exhausted, and {@link #record}
+ * waits for an image to be freed.
+ */
+@Log
+public final class FrameCapture implements Observer {
+
+    /** Output formats for captured frames. */
+    public enum Format {
+        /** Compressed PNG images. */
+        PNG,
+        /** Headerless packed 24-bit RGB, e.g. for ffmpeg's rawvideo. */
+        RAW
+    }
+
+    /** Bytes per pixel in the raw format. */
+    private static final int RAW_DEPTH = 3;
+
+    private final Game game;
+    private final File dir;
+    private final Format format;
+
+    /** Private view used only for its drawing code. */
+    private final GamePanel view;
+
+    /* Frame dimensions. */
+    private final int width;
+    private final int height;
+
+    /** Images not currently being rendered or encoded. */
+    private final BlockingQueue<BufferedImage> free;
+
+    /** Threads encoding and writing frames. */
+    private final ExecutorService encoders;
+
+    /** Number of frames dropped because the buffer was full. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Create a capture of a game into a directory.
+     * @param game     the game to capture
+     * @param dir      the output directory
+     * @param format   the output format
+     * @param buffer   the number of frames that may await encoding
+     * @param threads  the number of encoder threads
+     */
+    public FrameCapture(final Game game, final File dir, final Format format,
+                        final int buffer, final int threads) {
+        this.game = game;
+        this.dir = dir;
+        this.format = format;
+        view = new GamePanel(game);
+        /* The view is never displayed, so it shouldn't follow the game. */
+        game.deleteObserver(view);
+        width = (int) (game.getSettings().getWidth() * GamePanel.SCALE);
+        height = (int) (game.getSettings().getHeight() * GamePanel.SCALE);
+        free = new ArrayBlockingQueue<BufferedImage>(buffer);
+        for (int i = 0; i < buffer; i++) {
+            free.add(new BufferedImage(width, height,
+                                       BufferedImage.TYPE_INT_RGB));
+        }
+        encoders = Executors.newFixedThreadPool(threads);
+        dir.mkdirs();
+    }
+
+    /**
+     * Choose between Java2D and the software rasterizer for frames.
+     * @param enabled  true to rasterize geometry in software
+     */
+    public void setSoftwareRendering(final boolean enabled) {
+        view.setSoftwareRendering(enabled);
+    }
+
+    /**
+     * Capture every tick of a live game, dropping frames rather than
+     * blocking its thread when the buffer is full.
+     */
+    public void attach() {
+        game.addObserver(this);
+    }
+
+    /**
+     * Stop capturing a live game.
+     */
+    public void detach() {
+        game.deleteObserver(this);
+    }
+
+    @Override
+    public void update(final Observable o, final Object arg) {
+        BufferedImage image = free.poll();
+        if (image == null) {
+            dropped.incrementAndGet();
+        } else {
+            capture(image);
+        }
+    }
+
+    /**
+     * Drive an unscheduled game as fast as the encoders allow, capturing
+     * every tick. Don't combine this with {@link #attach()}.
+     * @param ticks  the number of ticks to run
+     * @throws InterruptedException if interrupted while waiting for a frame
+     */
+    public void record(final int ticks) throws InterruptedException {
+        for (int i = 0; i < ticks; i++) {
+            BufferedImage image = free.take();
+            game.step();
+            capture(image);
+        }
+    }
+
+    /**
+     * Wait for all queued frames to be written and stop the encoders.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void close() throws InterruptedException {
+        detach();
+        encoders.shutdown();
+        encoders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        view.setSoftwareRendering(false);
+        if (dropped.get() > 0) {
+            log.warning("dropped " + dropped.get() + " frames");
+        }
+    }
+
+    /**
+     * Return the number of frames dropped so far.
+     * @return the number of dropped frames
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Render the current game state and queue it for encoding.
+     * @param image  a free image to render into
+     */
+    private void capture(final BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        try {
+            view.paintFrame(g, width, height);
+        } finally {
+            g.dispose();
+        }
+        final long tick = game.getTick();
+        encoders.execute(new Runnable() {
+                public void run() {
+                    try {
+                        write(image, tick);
+                    } catch (IOException e) {
+                        log.warning("could not write frame " + tick
+                                    + ": " + e.getMessage());
+                    } finally {
+                        free.add(image);
+                    }
+                }
+            });
+    }
+
+    /**
+     * Encode and write a single frame.
+     * @param image  the frame
+     * @param tick   the tick the frame was taken on
+     * @throws IOException if the frame could not be written
+     */
+    private void write(final BufferedImage image, final long tick)
+        throws IOException {
+        String name = String.format("frame-%08d", tick);
+        if (format == Format.PNG) {
+            ImageIO.write(image, "png", new File(dir, name + ".png"));
+            return;
+        }
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+            .getData();
+        byte[] bytes = new byte[pixels.length * RAW_DEPTH];
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            bytes[i * RAW_DEPTH] = (byte) (p >> 16);
+            bytes[i * RAW_DEPTH + 1] = (byte) (p >> 8);
+            bytes[i * RAW_DEPTH + 2] = (byte) p;
+        }
+        OutputStream out = new BufferedOutputStream(
+            new FileOutputStream(new File(dir, name + ".rgb")));
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
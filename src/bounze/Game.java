@@ -1,12 +1,17 @@
 package bounze;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Random;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import lombok.Getter;
 import lombok.extern.java.Log;
 import lombok.val;
@@ -32,34 +37,41 @@ import org.pcollections.PSet;
 @Log
 public final class Game extends Observable implements ContactListener {
 
-    /** Frames per second.  */
+    /** Default frames per second.  */
     public static final int FPS = 30;
 
     /* JBox2D parameters. */
     private static final int V_ITERATIONS = 8;
     private static final int P_ITERATIONS = 3;
 
-    /** World width. */
+    /** Default world width. */
     public static final int WIDTH = 56;
 
-    /** World height. */
+    /** Default world height. */
     public static final int HEIGHT = 36;
 
-    /* JBox2D ball parameters. */
-    private static final float BALL_RADIUS = 1.25f;
-    private static final float BALL_DENSITY = 1f;
-    private static final float BALL_FRICTION = 0f;
-    private static final float BALL_RESTITUTION = 0.85f;
-    private static final float BALL_DAMPING = 0.7f;
-    private static final float BALL_CUTOFF = 5.0f;
-    private static final float BALL_VELOCITY = 60.0f;
+    /* Collision categories, for telling fixtures apart in contacts. */
+    private static final int WALL = 0x1;
+    private static final int EDGE = 0x2;
+    private static final int BALL = 0x4;
 
-    /** Priavte random number generator. */
-    private static final Random RNG = new Random();
+    /** Number of shots that can be undone. */
+    private static final int UNDO_LIMIT = 16;
 
-    /** Minimum edge length. */
-    private static final float MIN_EDGE = Math.max(WIDTH, HEIGHT) / 16;
-    private static final float PAD = 3;
+    /** Number of floating scores recycled through the score pool. */
+    private static final int SCORE_POOL = 256;
+
+    private static final long NANOS_PER_MS = 1000000L;
+
+    /** Mixes a game's seed with its layout count into a level seed. */
+    private static final long LEVEL_SEED_PRIME = 1000003L;
+
+    /** Source of seeds for new games. */
+    private static final Random SEEDS = new Random();
+
+    /** This game's world configuration. */
+    @Getter
+    private final Settings settings;
 
     /** Active edges in the world. */
     @Getter
@@ -69,9 +81,6 @@ public final class Game extends Observable implements ContactListener {
     @Getter
     private PSet<Edge> deadEdges = HashTreePSet.empty();
 
-    /** Vertices of the current level. */
-    private PSet<Vec2> vertices = HashTreePSet.empty();
-
     /** Active fading floating scores. */
     @Getter
     private PSet<Score> liveScores = HashTreePSet.empty();
@@ -90,6 +99,16 @@ public final class Game extends Observable implements ContactListener {
     /** True if a level generation is requested. */
     private volatile boolean generateRequested = true;
 
+    /** Direction of a requested shot, if any. */
+    private final AtomicReference<Vec2> shotRequested
+        = new AtomicReference<Vec2>();
+
+    /** True if undoing the last shot is requested. */
+    private volatile boolean undoRequested = false;
+
+    /** Game states from just before each recent shot, newest last. */
+    private final Deque<Snapshot> history = new ArrayDeque<Snapshot>();
+
     /** The JBox2D world. */
     @Getter
     private final World world;
@@ -109,6 +128,14 @@ public final class Game extends Observable implements ContactListener {
     @Getter
     private int shots = 0;
 
+    /** Number of shots taken since the game was reset. */
+    @Getter
+    private int shotsFired = 0;
+
+    /** Seed of the level generator for this game. */
+    @Getter
+    private long seed;
+
     /** Current level number. */
     @Getter
     private int level = 0;
@@ -121,90 +148,158 @@ public final class Game extends Observable implements ContactListener {
     @Getter
     private final Body ball;
 
-    /** The ball's JBox2D fixture. */
-    private final Fixture ballFixture;
+    /** All balls, starting with the player's ball. */
+    @Getter
+    private final List<Body> balls = new ArrayList<Body>();
+
+    /** Lays out new levels. */
+    private final LevelGenerator generator;
+
+    /** The level being prepared to be installed next, if any. */
+    private LevelGenerator.Level pending;
+
+    /** When the requested level became due, in nanoseconds, or -1. */
+    private long due = -1;
+
+    /** Number of layouts installed since the game was reset. */
+    private int layouts = 0;
 
     /** Bodies to be removed before the next simulation step. */
     private PSet<Body> dead = HashTreePSet.empty();
 
+    /** Preallocated floating scores, reused oldest first. */
+    private final Score[] scorePool = new Score[SCORE_POOL];
+
+    /** Index of the next score to take from the pool. */
+    private int nextScore = 0;
+
+    /** Identifier for the next edge created. */
+    private int nextEdgeId = 0;
+
     /**
-     * Create a new game instance.
+     * Create a new game instance running in real time.
      */
     public Game() {
+        this(new Settings(), true);
+    }
+
+    /**
+     * Create a new standard game instance.
+     * @param scheduled  if false, the game only advances through step()
+     */
+    public Game(final boolean scheduled) {
+        this(new Settings(), scheduled);
+    }
+
+    /**
+     * Create a new game instance.
+     * @param settings   the world configuration
+     * @param scheduled  if false, the game only advances through step()
+     */
+    public Game(final Settings settings, final boolean scheduled) {
+        this.settings = settings;
+        generator = new LevelGenerator(settings);
+        seed = SEEDS.nextLong();
+        int width = settings.getWidth();
+        int height = settings.getHeight();
         world = new World(new Vec2(0, 0), false);
 
         /* Create world edges. */
-        val top = new PolygonShape();
-        top.setAsEdge(new Vec2(0, 0), new Vec2(WIDTH, 0));
-        world.createBody(new BodyDef()).createFixture(top, 0f);
-        val bottom = new PolygonShape();
-        bottom.setAsEdge(new Vec2(0, HEIGHT), new Vec2(WIDTH, HEIGHT));
-        world.createBody(new BodyDef()).createFixture(bottom, 0f);
-        val left = new PolygonShape();
-        left.setAsEdge(new Vec2(0, 0), new Vec2(0, HEIGHT));
-        world.createBody(new BodyDef()).createFixture(left, 0f);
-        val right = new PolygonShape();
-        right.setAsEdge(new Vec2(WIDTH, 0), new Vec2(WIDTH, HEIGHT));
-        world.createBody(new BodyDef()).createFixture(right, 0f);
-
-        /* Set up the ball. */
+        addWall(new Vec2(0, 0), new Vec2(width, 0));
+        addWall(new Vec2(0, height), new Vec2(width, height));
+        addWall(new Vec2(0, 0), new Vec2(0, height));
+        addWall(new Vec2(width, 0), new Vec2(width, height));
+
+        /* Set up the balls. */
         val ballshape = new CircleShape();
-        ballshape.m_radius = BALL_RADIUS;
-        val ballbody = new BodyDef();
-        ballbody.position = new Vec2(WIDTH / 2, HEIGHT / 2);
-        ballbody.type = BodyType.DYNAMIC;
-        ballbody.linearDamping = BALL_DAMPING;
+        ballshape.m_radius = settings.getBallRadius();
         val ballfix = new FixtureDef();
         ballfix.shape = ballshape;
-        ballfix.density = BALL_DENSITY;
-        ballfix.friction = BALL_FRICTION;
-        ballfix.restitution = BALL_RESTITUTION;
-        ball = world.createBody(ballbody);
-        ballFixture = ball.createFixture(ballfix);
+        ballfix.density = settings.getBallDensity();
+        ballfix.friction = settings.getBallFriction();
+        ballfix.restitution = settings.getBallRestitution();
+        ballfix.filter.categoryBits = BALL;
+        for (int i = 0; i < settings.getBalls(); i++) {
+            val ballbody = new BodyDef();
+            ballbody.position = home(i);
+            ballbody.type = BodyType.DYNAMIC;
+            ballbody.linearDamping = settings.getBallDamping();
+            Body b = world.createBody(ballbody);
+            b.createFixture(ballfix);
+            balls.add(b);
+        }
+        ball = balls.get(0);
+
+        for (int i = 0; i < scorePool.length; i++) {
+            scorePool[i] = new Score();
+        }
 
         /* Set up the simulation thread. */
         world.setContactListener(this);
-        exec.scheduleAtFixedRate(new Runnable() {
-                public void run() {
-                    if (!running) {
-                        return;
-                    }
-                    world.step(1f / FPS, V_ITERATIONS, P_ITERATIONS);
-                    tick++;
-                    for (Body b : dead) {
-                        world.destroyBody(b);
-                        Edge edge = (Edge) b.getUserData();
-                        liveEdges = liveEdges.minus(edge);
-                        deadEdges = deadEdges.plus(edge);
-                        edge.setDeathTick(tick);
-                    }
-                    dead = HashTreePSet.empty();
-                    if (ballStopped()) {
-                        ball.setLinearVelocity(new Vec2(0, 0));
-                        scorebase = 0;
-                        for (Score s : liveScores) {
-                            s.setDeathTick(tick);
+        if (scheduled) {
+            exec.scheduleAtFixedRate(new Runnable() {
+                    public void run() {
+                        if (running) {
+                            step();
                         }
-                        deadScores = deadScores.plusAll(liveScores);
-                        liveScores = HashTreePSet.empty();
-                    }
-                    if (cleared() && ballStopped()) {
-                        log.info("next level");
-                        level++;
-                        generate();
-                    }
-                    if (generateRequested) {
-                        log.info("level generate");
-                        clear();
-                        generateLevel();
                     }
-                    if (ballStopped() && shots == 0 && level > 0) {
-                        gameOver = true;
-                    }
-                    setChanged();
-                    notifyObservers();
-                }
-            }, 0L, (long) (1000.0 / FPS), TimeUnit.MILLISECONDS);
+                }, 0L, (long) (1000.0 / settings.getFps()),
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Advance the simulation by one tick. This is called by the game's own
+     * thread, so only call it directly on an unscheduled game.
+     */
+    public void step() {
+        if (!generateRequested) {
+            Vec2 dir = shotRequested.getAndSet(null);
+            if (dir != null && ballStopped() && !gameOver) {
+                fire(dir);
+            }
+        }
+        world.step(1f / settings.getFps(), V_ITERATIONS, P_ITERATIONS);
+        tick++;
+        for (Body b : dead) {
+            world.destroyBody(b);
+            Edge edge = (Edge) b.getUserData();
+            liveEdges = liveEdges.minus(edge);
+            deadEdges = deadEdges.plus(edge);
+            edge.setDeathTick(tick);
+        }
+        dead = HashTreePSet.empty();
+        /* While a level is due, hold undo back and don't end the game. */
+        if (undoRequested && !generateRequested) {
+            undoRequested = false;
+            if (!gameOver) {
+                restore();
+            }
+        }
+        if (ballStopped()) {
+            for (Body b : balls) {
+                b.setLinearVelocity(new Vec2(0, 0));
+            }
+            scorebase = 0;
+            for (Score s : liveScores) {
+                s.setDeathTick(tick);
+            }
+            deadScores = deadScores.plusAll(liveScores);
+            liveScores = HashTreePSet.empty();
+        }
+        if (cleared() && ballStopped() && !generateRequested) {
+            log.info("next level");
+            level++;
+            generate();
+        }
+        if (generateRequested) {
+            installLevel();
+        }
+        if (!generateRequested && ballStopped() && shots == 0 && level > 0) {
+            gameOver = true;
+        }
+        setChanged();
+        notifyObservers();
     }
 
     /** Run the simulation. */
@@ -222,74 +317,79 @@ public final class Game extends Observable implements ContactListener {
         generateRequested = true;
     }
 
-    /** Generate a new level -- must be run by the simulation thread. */
-    private void generateLevel() {
-        score += shots * 10;
-        shots = 10 + level / 5;
-        deadEdges = HashTreePSet.empty();
-        deadScores = liveScores;
-        liveScores = HashTreePSet.empty();
-        List<Vec2> roots = new ArrayList<Vec2>();
-        for (int i = 0; i < Math.sqrt(level) + 1; i++) {
-            Vec2 p = randomPosition();
-            roots.add(p);
-            if (i > 0) {
-                addEdge(roots.get(i - 1), roots.get(i));
-            }
-        }
-        for (Vec2 v : roots) {
-            spider(v, 0.8);
-            spider(v, 0.8);
-        }
-        generateRequested = false;
+    /** Undo the last shot (asynchronously), unless the game is over. */
+    public void undo() {
+        undoRequested = true;
     }
 
-    /** Return true of the point is inside the world.
-     * @param p  the point to test
-     * @return true if the point is inside the world
+    /**
+     * Start preparing a level from the ball's home, seeded from this
+     * game's seed and how many layouts it has installed.
+     * @param number  the level number
+     * @return the level being prepared
      */
-    private boolean inBounds(final Vec2 p) {
-        return p.x > PAD && p.x < WIDTH - PAD
-            && p.y > PAD && p.y < HEIGHT - PAD;
+    private LevelGenerator.Level prepare(final int number) {
+        return generator.prepare(levelSeed(), number, home(0));
     }
 
     /**
-     * Check to see if this point is close to an existing point.
-     * @param p  the point to test
-     * @return true if the point is near an existing point
+     * Return the seed for the next layout installed.
+     * @return the level seed
      */
-    private boolean nearVertex(final Vec2 p) {
-        for (Vec2 v : vertices) {
-            if (v.sub(p).length() < MIN_EDGE) {
-                return true;
+    private long levelSeed() {
+        return seed * LEVEL_SEED_PRIME + layouts;
+    }
+
+    /**
+     * Install the requested level once it is ready and start preparing
+     * the one after it -- must be run by the simulation thread. Until the
+     * level is ready, ticks carry on without it. Once the level budget has
+     * passed, the best candidate scored so far is installed.
+     */
+    private void installLevel() {
+        if (pending == null || pending.getNumber() != level
+            || pending.getSeed() != levelSeed()) {
+            if (pending != null) {
+                pending.cancel();
             }
+            pending = prepare(level);
+            due = -1;
+        }
+        long now = System.nanoTime();
+        if (due < 0) {
+            due = now;
+        }
+        long budget = settings.getLevelBudget();
+        boolean late = budget > 0 && now - due >= budget * NANOS_PER_MS;
+        if (!pending.isReady() && !(late && pending.isStarted())) {
+            return;
         }
-        return false;
+        log.info("level generate");
+        clear();
+        generateLevel(pending.getEdges());
+        layouts++;
+        due = -1;
+        pending = prepare(level + 1);
     }
 
     /**
-     * Create a sprawling chain of edges.
-     * @param p     the root point
-     * @param prob  the probability of continuing
+     * Set up a new level -- must be run by the simulation thread.
+     * @param edges  the level's edges as pairs of points
      */
-    private void spider(final Vec2 p, final double prob) {
-        Vec2 end = null;
-        double dist, angle;
-        int giveup = 0;
-        do {
-            if (giveup++ > 16) {
-                return;
-            }
-            angle = RNG.nextFloat() * Math.PI * 2f;
-            dist = RNG.nextGaussian() * prob
-                * Math.min(WIDTH, HEIGHT) / 4;
-            end = new Vec2((float) (Math.cos(angle) * dist),
-                           (float) (Math.sin(angle) * dist)).add(p);
-        } while (dist < MIN_EDGE || !inBounds(end) || nearVertex(end));
-        addEdge(p, end);
-        if (RNG.nextDouble() < prob) {
-            spider(end, prob / 2);
+    private void generateLevel(final List<Vec2[]> edges) {
+        synchronized (history) {
+            history.clear();
         }
+        score += shots * 10;
+        shots = 10 + level / 5;
+        sendHome();
+        deadEdges = HashTreePSet.empty();
+        deadScores = liveScores;
+        liveScores = HashTreePSet.empty();
+        for (Vec2[] e : edges) {
+            addEdge(e[0], e[1]);
+        }
+        generateRequested = false;
     }
 
     /**
@@ -298,41 +398,86 @@ public final class Game extends Observable implements ContactListener {
      * @param b  the end point
      */
     private void addEdge(final Vec2 a, final Vec2 b) {
+        val body = edgeBody(a, b);
+        if (body != null) {
+            Edge edge = new Edge(a, b, body, nextEdgeId++);
+            body.setUserData(edge);
+            liveEdges = liveEdges.plus(edge);
+        }
+    }
+
+    /**
+     * Create the JBox2D body for an edge.
+     * @param a  the start point
+     * @param b  the end point
+     * @return the new body, or null if the world is locked
+     */
+    private Body edgeBody(final Vec2 a, final Vec2 b) {
         val shape = new PolygonShape();
         shape.setAsEdge(a, b);
+        val fix = new FixtureDef();
+        fix.shape = shape;
+        fix.filter.categoryBits = EDGE;
         val body = world.createBody(new BodyDef());
         if (body != null) {
-            body.createFixture(shape, 0f);
-            vertices = vertices.plus(a);
-            vertices = vertices.plus(b);
-            Edge edge = new Edge(a, b, body);
-            body.setUserData(edge);
-            liveEdges = liveEdges.plus(edge);
+            body.createFixture(fix);
         }
+        return body;
+    }
+
+    /**
+     * Add an indestructible wall to the world.
+     * @param a  the start point
+     * @param b  the end point
+     */
+    private void addWall(final Vec2 a, final Vec2 b) {
+        val shape = new PolygonShape();
+        shape.setAsEdge(a, b);
+        val fix = new FixtureDef();
+        fix.shape = shape;
+        fix.filter.categoryBits = WALL;
+        world.createBody(new BodyDef()).createFixture(fix);
     }
 
     /**
      * Clear all edges from the map.
      */
     public void clear() {
-        vertices = HashTreePSet.empty();
         for (Edge e : liveEdges) {
+            e.setAlive(false);
             dead = dead.plus(e.getBody());
         }
     }
 
 
     /**
-     * Reset the game (i.e. after a game over).
+     * Reset the game (i.e. after a game over) with a fresh seed.
      */
     public void reset() {
+        reset(SEEDS.nextLong());
+    }
+
+    /**
+     * Reset the game with the given level generator seed. The same seed
+     * gives the same sequence of levels, unless a level is regenerated or
+     * is due before all its candidates are scored (never, with a level
+     * budget of 0).
+     * @param newSeed  the seed
+     */
+    public void reset(final long newSeed) {
+        synchronized (history) {
+            history.clear();
+        }
+        seed = newSeed;
+        layouts = 0;
+        shotRequested.set(null);
         gameOver = false;
         score = 0;
         shots = 0;
+        shotsFired = 0;
         scorebase = 0;
         clear();
-        ball.setTransform(new Vec2(WIDTH / 2, HEIGHT / 2), 0f);
-        ball.setLinearVelocity(new Vec2(0, 0));
+        sendHome();
         level = 0;
         generate();
     }
@@ -346,29 +491,199 @@ public final class Game extends Observable implements ContactListener {
     }
 
     /**
-     * Return a uniformly distributed random position in the world.
-     * @return a random world position
+     * Put every ball back at rest in its starting position, where the
+     * level generator scores layouts from.
      */
-    private Vec2 randomPosition() {
-        return new Vec2(RNG.nextFloat() * WIDTH, RNG.nextFloat() * HEIGHT);
+    private void sendHome() {
+        for (int i = 0; i < balls.size(); i++) {
+            balls.get(i).setTransform(home(i), 0f);
+            balls.get(i).setLinearVelocity(new Vec2(0, 0));
+            balls.get(i).setAngularVelocity(0);
+        }
     }
 
     /**
-     * Return true if the ball is not moving.
-     * @return true if the ball is not moving
+     * Return the starting position of a ball. The player's ball starts in
+     * the center and any others are spread in a ring around it.
+     * @param i  the ball index
+     * @return the ball's starting position
+     */
+    private Vec2 home(final int i) {
+        float cx = settings.getWidth() / 2;
+        float cy = settings.getHeight() / 2;
+        if (i == 0) {
+            return new Vec2(cx, cy);
+        }
+        double angle = Math.PI * 2 * i / (settings.getBalls() - 1);
+        float r = Math.min(cx, cy) / 2;
+        return new Vec2(cx + (float) Math.cos(angle) * r,
+                        cy + (float) Math.sin(angle) * r);
+    }
+
+    /**
+     * Return true if no ball is moving.
+     * @return true if no ball is moving
      */
     public boolean ballStopped() {
-        return ball.getLinearVelocity().length() < BALL_CUTOFF;
+        for (Body b : balls) {
+            if (b.getLinearVelocity().length() >= settings.getBallCutoff()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * Shoot the ball in a direction.
+     * Shoot the ball in a direction (asynchronously). Any other balls are
+     * shot at evenly spaced angles from it. The shot is taken on the next
+     * tick with the balls stopped and the level in place.
      * @param dir  the direction to shoot the ball
      */
     public void shoot(final Vec2 dir) {
+        shotRequested.set(dir.clone());
+    }
+
+    /**
+     * Take a shot -- must be run by the simulation thread.
+     * @param dir  the direction to shoot the ball
+     */
+    private void fire(final Vec2 dir) {
+        synchronized (history) {
+            history.addLast(new Snapshot());
+            if (history.size() > UNDO_LIMIT) {
+                history.removeFirst();
+            }
+        }
         shots--;
+        shotsFired++;
         dir.normalize();
-        ball.setLinearVelocity(dir.mul(BALL_VELOCITY));
+        float v = settings.getBallVelocity();
+        for (int i = 0; i < balls.size(); i++) {
+            double angle = Math.atan2(dir.y, dir.x)
+                + Math.PI * 2 * i / balls.size();
+            balls.get(i).setLinearVelocity(
+                new Vec2((float) Math.cos(angle) * v,
+                         (float) Math.sin(angle) * v));
+        }
+    }
+
+    /**
+     * Return the game to just before the last shot -- must be run by the
+     * simulation thread. Edges broken since then get fresh bodies; all
+     * other edges are left alone.
+     */
+    private void restore() {
+        Snapshot snap;
+        synchronized (history) {
+            snap = history.pollLast();
+        }
+        if (snap == null) {
+            return;
+        }
+        for (Edge e : snap.edges) {
+            if (!e.isAlive()) {
+                Body body = edgeBody(e.getA(), e.getB());
+                body.setUserData(e);
+                e.setBody(body);
+                e.setAlive(true);
+                e.setDeathTick(-1);
+                deadEdges = deadEdges.minus(e);
+            }
+        }
+        liveEdges = snap.edges;
+        liveScores = HashTreePSet.empty();
+        score = snap.score;
+        scorebase = snap.scorebase;
+        shots = snap.shots;
+        shotsFired = snap.shotsFired;
+        for (int i = 0; i < balls.size(); i++) {
+            balls.get(i).setTransform(snap.positions[i], snap.angles[i]);
+            balls.get(i).setLinearVelocity(new Vec2(0, 0));
+            balls.get(i).setAngularVelocity(0);
+        }
+    }
+
+    /**
+     * Overwrite the scoreboard and balls with broadcast state. Only for
+     * unscheduled games mirroring a spectated game.
+     * @param t       the tick
+     * @param lvl     the level
+     * @param points  the score
+     * @param left    the shots left
+     * @param over    true if the game has ended
+     * @param state   x, y, vx and vy for each ball
+     */
+    void mirrorState(final long t, final int lvl, final int points,
+                     final int left, final boolean over, final float[] state) {
+        if (lvl != level) {
+            deadEdges = HashTreePSet.empty();
+        }
+        tick = t;
+        level = lvl;
+        score = points;
+        shots = left;
+        gameOver = over;
+        for (int i = 0; i < balls.size() && i * 4 + 3 < state.length; i++) {
+            Body b = balls.get(i);
+            b.setTransform(new Vec2(state[i * 4], state[i * 4 + 1]), 0f);
+            b.setLinearVelocity(new Vec2(state[i * 4 + 2], state[i * 4 + 3]));
+        }
+    }
+
+    /**
+     * Replace the live edges with a broadcast set, keeping edges that are
+     * already present. Only for unscheduled mirror games.
+     * @param ids     the edge identifiers
+     * @param points  ax, ay, bx and by for each edge
+     */
+    void mirrorEdges(final int[] ids, final float[] points) {
+        Map<Integer, Edge> present = new HashMap<Integer, Edge>();
+        for (Edge e : liveEdges) {
+            present.put(e.getId(), e);
+        }
+        PSet<Edge> edges = HashTreePSet.empty();
+        for (int i = 0; i < ids.length; i++) {
+            Edge e = present.remove(ids[i]);
+            if (e == null) {
+                Vec2 a = new Vec2(points[i * 4], points[i * 4 + 1]);
+                Vec2 b = new Vec2(points[i * 4 + 2], points[i * 4 + 3]);
+                Body body = edgeBody(a, b);
+                e = new Edge(a, b, body, ids[i]);
+                body.setUserData(e);
+            }
+            edges = edges.plus(e);
+        }
+        for (Edge e : present.values()) {
+            world.destroyBody(e.getBody());
+        }
+        liveEdges = edges;
+    }
+
+    /**
+     * Break a live edge by its identifier. Only for unscheduled mirror
+     * games.
+     * @param id  the edge identifier
+     */
+    void mirrorBreak(final int id) {
+        for (Edge e : liveEdges) {
+            if (e.getId() == id) {
+                world.destroyBody(e.getBody());
+                e.setAlive(false);
+                e.setDeathTick(tick);
+                liveEdges = liveEdges.minus(e);
+                deadEdges = deadEdges.plus(e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Notify observers of mirrored changes. Only for unscheduled mirror
+     * games.
+     */
+    void mirrorChanged() {
+        setChanged();
+        notifyObservers();
     }
 
     @Override
@@ -377,25 +692,42 @@ public final class Game extends Observable implements ContactListener {
 
     @Override
     public void endContact(final Contact contact) {
-        Body a = contact.getFixtureA().getBody();
-        Body b = contact.getFixtureB().getBody();
-        Body scored = null;
-        Object ad = a.getUserData();
-        Object bd = b.getUserData();
-        if (ad != null && liveEdges.contains((Edge) ad)) {
-            scored = a;
-        } else if (bd != null && liveEdges.contains((Edge) bd)) {
-            scored = b;
-        }
-        if (scored != null) {
+        Fixture hit = contact.getFixtureA();
+        if ((hit.getFilterData().categoryBits & EDGE) == 0) {
+            hit = contact.getFixtureB();
+            if ((hit.getFilterData().categoryBits & EDGE) == 0) {
+                return;
+            }
+        }
+        Body scored = hit.getBody();
+        Edge edge = (Edge) scored.getUserData();
+        if (edge.isAlive()) {
+            edge.setAlive(false);
             dead = dead.plus(scored);
             scorebase++;
             score += scorebase;
-            Vec2 p = scored.getWorldPoint(contact.getManifold().localPoint);
-            liveScores = liveScores.plus(new Score(p, scorebase));
+            Score s = pooledScore();
+            s.setScore(scorebase);
+            scored.getWorldPointToOut(contact.getManifold().localPoint,
+                                      s.getPosition());
+            liveScores = liveScores.plus(s);
         }
     }
 
+    /**
+     * Take the oldest floating score from the pool, removing it from
+     * display if it is still shown.
+     * @return a score ready to be filled in
+     */
+    private Score pooledScore() {
+        Score s = scorePool[nextScore];
+        nextScore = (nextScore + 1) % scorePool.length;
+        liveScores = liveScores.minus(s);
+        deadScores = deadScores.minus(s);
+        s.setDeathTick(-1);
+        return s;
+    }
+
     @Override
     public void postSolve(final Contact contact, final ContactImpulse impulse) {
     }
@@ -403,4 +735,33 @@ public final class Game extends Observable implements ContactListener {
     @Override
     public void preSolve(final Contact contact, final Manifold oldManifold) {
     }
+
+    /**
+     * The state needed to undo a shot. Edges are shared with the live
+     * game rather than copied, so a snapshot costs a few words per ball.
+     */
+    private final class Snapshot {
+
+        /** Live edges at the time of the snapshot. */
+        private final PSet<Edge> edges = liveEdges;
+
+        private final int score = Game.this.score;
+        private final int scorebase = Game.this.scorebase;
+        private final int shots = Game.this.shots;
+        private final int shotsFired = Game.this.shotsFired;
+
+        /* Ball transforms. */
+        private final Vec2[] positions = new Vec2[balls.size()];
+        private final float[] angles = new float[balls.size()];
+
+        /**
+         * Capture the current state of the game.
+         */
+        Snapshot() {
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = balls.get(i).getPosition().clone();
+                angles[i] = balls.get(i).getAngle();
+            }
+        }
+    }
 }
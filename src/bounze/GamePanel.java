@@ -14,15 +14,17 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
 import java.awt.geom.Path2D;
 import java.util.Observable;
 import java.util.Observer;
 import javax.swing.JComponent;
 import lombok.NonNull;
 import lombok.extern.java.Log;
-import lombok.val;
 import org.jbox2d.collision.shapes.CircleShape;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
@@ -36,9 +38,10 @@ import org.jbox2d.dynamics.Fixture;
 public final class GamePanel extends JComponent
     implements Observer, MouseMotionListener, MouseListener, KeyListener {
 
-    private static final Color BACK = new Color(0, 102, 153);
-    private static final Color FORE = new Color(255, 255, 255);
-    private static final Color FILL = new Color(0,  51, 153);
+    /* Colors shared with the software renderer. */
+    static final Color BACK = new Color(0, 102, 153);
+    static final Color FORE = new Color(255, 255, 255);
+    static final Color FILL = new Color(0,  51, 153);
     private static final Color SCORE = Color.BLACK;
 
     private static final Font SCORE_FONT
@@ -49,45 +52,121 @@ public final class GamePanel extends JComponent
     /** Scale up game units by this amount. */
     public static final float SCALE = 10;
     private static final Stroke STROKE = new BasicStroke((2f / SCALE));
+    private static final Stroke BORDER_STROKE = new BasicStroke(2);
 
     private final Game game;
 
+    /** Frames per second of the displayed game. */
+    private final int fps;
+
+    /* Fading colors, indexed by age in ticks. */
+    private final Color[] foreFade;
+    private final Color[] scoreFade;
+
     @NonNull
-    private Vec2 mouseLast = new Vec2(0, 0);
+    private final Vec2 mouseLast = new Vec2(0, 0);
+
+    /* Shapes reused between frames to avoid per-frame allocation. */
+    private final Line2D.Float line = new Line2D.Float();
+    private final Ellipse2D.Float circle = new Ellipse2D.Float();
+    private final Path2D.Float pointer = new Path2D.Float();
+
+    /** Cached score label glyphs, indexed by score value. */
+    private GlyphVector[] labels = new GlyphVector[0];
 
-    private Path2D pointer = new Path2D.Double();
+    /** The rendering context the cached labels were laid out for. */
+    private FontRenderContext labelContext;
+
+    /** True once the game over message has been logged. */
+    private boolean gameOverLogged = false;
+
+    /** Optional software rasterizer used instead of Java2D strokes. */
+    private SoftwareRenderer software;
 
     /** Create a new panel displaying a game.
      * @param game  the game to display
      */
     public GamePanel(final Game game) {
         this.game = game;
-        Dimension d = new Dimension((int) (Game.WIDTH * SCALE),
-                                    (int) (Game.HEIGHT * SCALE));
+        Settings settings = game.getSettings();
+        fps = settings.getFps();
+        foreFade = fade(FORE, fps);
+        scoreFade = fade(SCORE, fps);
+        Dimension d = new Dimension((int) (settings.getWidth() * SCALE),
+                                    (int) (settings.getHeight() * SCALE));
         setPreferredSize(d);
 
-        pointer.moveTo(3, 1);
-        pointer.lineTo(3 + 1, 0);
-        pointer.lineTo(3, -1);
-
         addMouseListener(this);
         addMouseMotionListener(this);
         addKeyListener(this);
         game.addObserver(this);
     }
 
+    /**
+     * Choose between Java2D and the software rasterizer for geometry.
+     * @param enabled  true to rasterize geometry in software
+     */
+    public void setSoftwareRendering(final boolean enabled) {
+        if (enabled && software == null) {
+            software = new SoftwareRenderer();
+        } else if (!enabled && software != null) {
+            software.close();
+            software = null;
+        }
+    }
+
     @Override
     public void paintComponent(final Graphics graphics) {
-        Graphics2D g = (Graphics2D) graphics;
+        paintFrame((Graphics2D) graphics, getWidth(), getHeight());
+    }
+
+    /**
+     * Paint the game onto any surface, such as an offscreen image.
+     * @param g       the graphics object
+     * @param width   the surface width
+     * @param height  the surface height
+     */
+    public void paintFrame(final Graphics2D g, final int width,
+                           final int height) {
+        if (software != null) {
+            /* Rasterize at device resolution, e.g. on high-DPI screens. */
+            AffineTransform device = g.getTransform();
+            double scale = Math.max(Math.abs(device.getScaleX()),
+                                    Math.abs(device.getScaleY()));
+            if (scale <= 0) {
+                scale = 1;
+            }
+            g.scale(1 / scale, 1 / scale);
+            g.drawImage(software.render(game, mouseLast, width, height,
+                                        scale), 0, 0, null);
+            g.setTransform(device);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                               RenderingHints.VALUE_ANTIALIAS_ON);
+            g.scale(SCALE, SCALE);
+        } else {
+            drawGeometry(g, width, height);
+        }
+        drawText(g);
+    }
+
+    /**
+     * Draw the background, edges, ball and pointer with Java2D, leaving
+     * the graphics object scaled to world units.
+     * @param g       the graphics object
+     * @param width   the surface width
+     * @param height  the surface height
+     */
+    private void drawGeometry(final Graphics2D g, final int width,
+                              final int height) {
         g.setColor(BACK);
-        g.fillRect(0, 0, getWidth(), getHeight());
+        g.fillRect(0, 0, width, height);
 
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                            RenderingHints.VALUE_ANTIALIAS_ON);
 
         g.setColor(FORE);
-        g.setStroke(new BasicStroke(2));
-        g.drawRect(1, 1, getWidth() - 2, getHeight() - 2);
+        g.setStroke(BORDER_STROKE);
+        g.drawRect(1, 1, width - 2, height - 2);
 
         g.setStroke(STROKE);
         g.scale(SCALE, SCALE);
@@ -99,14 +178,29 @@ public final class GamePanel extends JComponent
 
         for (Edge e : game.getDeadEdges()) {
             int age = (int) (game.getTick() - e.getDeathTick());
-            if (age < Game.FPS) {
-                int alpha = 255 - age * 255 / Game.FPS;
-                g.setColor(new Color(FORE.getRed(), FORE.getGreen(),
-                                     FORE.getBlue(), alpha));
+            if (age < fps) {
+                g.setColor(foreFade[age]);
                 draw(g, e);
             }
         }
 
+        /* Draw the game balls. */
+        for (Body ball : game.getBalls()) {
+            Fixture ballfix = ball.getFixtureList();
+            draw(g, (CircleShape) ballfix.getShape(), ball.getPosition());
+        }
+
+        /* Draw pointer. */
+        if (game.ballStopped() && !game.isGameOver()) {
+            drawPointer(g, game.getBall().getPosition());
+        }
+    }
+
+    /**
+     * Draw the floating scores and the game over message in world units.
+     * @param g  the graphics object
+     */
+    private void drawText(final Graphics2D g) {
         /* Draw active scores. */
         g.setFont(SCORE_FONT);
         g.setColor(SCORE);
@@ -117,39 +211,45 @@ public final class GamePanel extends JComponent
         /* Draw inactive scores. */
         for (Score s : game.getDeadScores()) {
             int age = (int) (game.getTick() - s.getDeathTick());
-            if (age < Game.FPS) {
-                int alpha = 255 - age * 255 / Game.FPS;
-                Color c = new Color(SCORE.getRed(), SCORE.getGreen(),
-                                    SCORE.getBlue(), alpha);
-                g.setColor(c);
+            if (age < fps) {
+                g.setColor(scoreFade[age]);
                 draw(g, s);
             }
         }
 
-        /* Draw the game ball. */
-        Body ball = game.getBall();
-        Fixture ballfix = ball.getFixtureList();
-        draw(g, (CircleShape) ballfix.getShape(), ball.getPosition());
-
-        /* Draw pointer. */
-        if (game.ballStopped() && !game.isGameOver()) {
-            AffineTransform at = new AffineTransform();
-            Vec2 pos = game.getBall().getPosition();
-            at.translate(pos.x, pos.y);
-            at.rotate(Math.atan2(mouseLast.y - pos.y, mouseLast.x - pos.x));
-            g.draw(at.createTransformedShape(pointer));
-        }
-
         /* Draw "Game Over" text. */
         if (game.isGameOver()) {
             String msg = "Game Over";
-            log.info(msg);
+            if (!gameOverLogged) {
+                log.info(msg);
+                gameOverLogged = true;
+            }
             g.setColor(SCORE);
             g.setFont(GAME_OVER_FONT);
             FontMetrics fm = g.getFontMetrics();
-            g.drawString(msg, Game.WIDTH / 2 - fm.stringWidth(msg) / 2,
-                         2 * Game.HEIGHT / 3);
+            Settings settings = game.getSettings();
+            g.drawString(msg,
+                         settings.getWidth() / 2 - fm.stringWidth(msg) / 2,
+                         2 * settings.getHeight() / 3);
+        } else {
+            gameOverLogged = false;
+        }
+    }
+
+    /**
+     * Build a table of fading colors, one per tick of fade age.
+     * @param c       the fully opaque color
+     * @param length  the fade length in ticks
+     * @return the color at each age, fading to transparent
+     */
+    private static Color[] fade(final Color c, final int length) {
+        Color[] table = new Color[length];
+        for (int age = 0; age < table.length; age++) {
+            int alpha = 255 - age * 255 / length;
+            table[age] = new Color(c.getRed(), c.getGreen(), c.getBlue(),
+                                   alpha);
         }
+        return table;
     }
 
     /**
@@ -159,7 +259,31 @@ public final class GamePanel extends JComponent
      */
     private void draw(final Graphics2D g, final Score s) {
         Vec2 pos = s.getPosition();
-        g.drawString("+" + s.getScore(), pos.x, pos.y);
+        g.drawGlyphVector(label(g, s.getScore()), pos.x, pos.y);
+    }
+
+    /**
+     * Return the laid out glyphs for a score label, creating them once.
+     * @param g      the graphics object the label will be drawn on
+     * @param score  the score value
+     * @return the glyphs for the label
+     */
+    private GlyphVector label(final Graphics2D g, final int score) {
+        FontRenderContext frc = g.getFontRenderContext();
+        if (!frc.equals(labelContext)) {
+            labels = new GlyphVector[labels.length];
+            labelContext = frc;
+        }
+        if (score >= labels.length) {
+            GlyphVector[] grown = new GlyphVector[Math.max(score + 1,
+                                                           labels.length * 2)];
+            System.arraycopy(labels, 0, grown, 0, labels.length);
+            labels = grown;
+        }
+        if (labels[score] == null) {
+            labels[score] = SCORE_FONT.createGlyphVector(frc, "+" + score);
+        }
+        return labels[score];
     }
 
     /**
@@ -168,12 +292,32 @@ public final class GamePanel extends JComponent
      * @param e  the edge to draw
      */
     private void draw(final Graphics2D g, final Edge e) {
-        Path2D line = new Path2D.Float();
-        line.moveTo(e.getA().x, e.getA().y);
-        line.lineTo(e.getB().x, e.getB().y);
+        line.setLine(e.getA().x, e.getA().y, e.getB().x, e.getB().y);
         g.draw(line);
     }
 
+    /**
+     * Draw the aiming pointer next to the ball, facing the mouse.
+     * @param g    the graphics object
+     * @param pos  the ball's position
+     */
+    private void drawPointer(final Graphics2D g, final Vec2 pos) {
+        float dx = mouseLast.x - pos.x;
+        float dy = mouseLast.y - pos.y;
+        float len = (float) Math.sqrt(dx * dx + dy * dy);
+        float cos = 1;
+        float sin = 0;
+        if (len > 0) {
+            cos = dx / len;
+            sin = dy / len;
+        }
+        pointer.reset();
+        pointer.moveTo(pos.x + 3 * cos - sin, pos.y + 3 * sin + cos);
+        pointer.lineTo(pos.x + 4 * cos, pos.y + 4 * sin);
+        pointer.lineTo(pos.x + 3 * cos + sin, pos.y + 3 * sin - cos);
+        g.draw(pointer);
+    }
+
     /**
      * Draw an a circle.
      * @param g    the graphics object
@@ -181,10 +325,8 @@ public final class GamePanel extends JComponent
      * @param pos  The circle's position
      */
     private void draw(final Graphics2D g, final CircleShape s, final Vec2 pos) {
-        double x = pos.x;
-        double y = pos.y;
-        double r = s.m_radius;
-        val circle = new Ellipse2D.Double(x - r, y - r, r * 2, r * 2);
+        float r = s.m_radius;
+        circle.setFrame(pos.x - r, pos.y - r, r * 2, r * 2);
         g.setColor(FILL);
         g.fill(circle);
         g.setColor(FORE);
@@ -199,12 +341,12 @@ public final class GamePanel extends JComponent
 
     @Override
     public void mouseDragged(final MouseEvent e) {
-        mouseLast = new Vec2(e.getX() / SCALE, e.getY() / SCALE);
+        mouseLast.set(e.getX() / SCALE, e.getY() / SCALE);
     }
 
     @Override
     public void mouseMoved(final MouseEvent e) {
-        mouseLast = new Vec2(e.getX() / SCALE, e.getY() / SCALE);
+        mouseLast.set(e.getX() / SCALE, e.getY() / SCALE);
     }
 
     @Override
@@ -249,6 +391,8 @@ public final class GamePanel extends JComponent
             game.generate();
         } else if (e.getKeyChar() == 'r') {
             game.reset();
+        } else if (e.getKeyChar() == 'u') {
+            game.undo();
         }
     }
 }
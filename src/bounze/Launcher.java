@@ -1,9 +1,24 @@
 package bounze;
 
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Random;
 import javax.swing.BoxLayout;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import lombok.extern.java.Log;
+import org.jbox2d.common.Vec2;
 
 /**
  * Launch the game as a standalone application.
@@ -11,6 +26,14 @@ import lombok.extern.java.Log;
 @Log
 public final class Launcher {
 
+    /** Frames that may await encoding during a capture. */
+    private static final int CAPTURE_BUFFER = 64;
+
+    /** Milliseconds to keep running after startup when asked to exit. */
+    private static final int EXIT_DELAY = 1000;
+
+    private static final long NANOS_PER_MS = 1000000L;
+
     /** Hidden constructor. */
     private Launcher() {
     }
@@ -20,6 +43,25 @@ public final class Launcher {
      * @param args command line arguments
      */
     public static void main(final String[] args) {
+        if (args.length >= 3 && "-capture".equals(args[0])) {
+            capture(args);
+            return;
+        } else if (args.length >= 3 && "-watch".equals(args[0])) {
+            watch(args);
+            return;
+        }
+        /* Arguments: -serve PORT [ADDRESS], on loopback by default. */
+        int port = -1;
+        String address = null;
+        if (args.length >= 2 && "-serve".equals(args[0])) {
+            port = Integer.parseInt(args[1]);
+        }
+        if (port >= 0 && args.length >= 3) {
+            address = args[2];
+        }
+        final int spectatorPort = port;
+        final String spectatorAddress = address;
+
         try {
             /* Fix for poor OpenJDK performance. */
             System.setProperty("sun.java2d.pmoffscreen", "false");
@@ -27,19 +69,224 @@ public final class Launcher {
             log.info("could not set sun.java2d.pmoffscreen");
         }
 
-        Game game = new Game();
-        GamePanel view = new GamePanel(game);
-        ScorePanel score = new ScorePanel(game);
-        JFrame frame = new JFrame("Bounze");
+        final long launch = System.nanoTime();
+        final JFrame frame = new JFrame("Bounze");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setResizable(false);
+
+        /* Show an empty frame right away, before physics is loaded. */
+        JPanel placeholder = new JPanel();
+        placeholder.setBackground(Color.BLACK);
+        placeholder.setPreferredSize(new Dimension(
+            (int) (Game.WIDTH * GamePanel.SCALE),
+            (int) (Game.HEIGHT * GamePanel.SCALE) + ScorePanel.HEIGHT));
+        frame.add(placeholder);
+        frame.pack();
+        frame.setVisible(true);
+        final long shown = System.nanoTime();
+
+        Thread loader = new Thread(new Runnable() {
+                public void run() {
+                    final Game game = new Game();
+                    keepScores(game);
+                    if (spectatorPort >= 0) {
+                        serve(game, spectatorAddress, spectatorPort);
+                    }
+                    SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                install(frame, game);
+                                awaitPlayable(game, launch, shown);
+                            }
+                        });
+                }
+            }, "bounze-loader");
+        loader.start();
+    }
+
+    /**
+     * Store the results of a game in the local high-score log, which is
+     * ~/.bounze-scores unless the bounze.scores property says otherwise.
+     * @param game  the game to record
+     */
+    private static void keepScores(final Game game) {
+        File home = new File(System.getProperty("user.home"), ".bounze-scores");
+        File file = new File(System.getProperty("bounze.scores",
+                                                home.getPath()));
+        try {
+            ScoreStore store = new ScoreStore(file);
+            store.attach(game);
+            List<ScoreStore.Entry> top = store.getTop();
+            if (!top.isEmpty()) {
+                log.info("high score: " + top.get(0));
+            }
+        } catch (IOException e) {
+            log.warning("could not open high scores: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Broadcast a game to spectators.
+     * @param game     the game to broadcast
+     * @param address  the address to listen on, or null for loopback
+     * @param port     the port to listen on
+     */
+    private static void serve(final Game game, final String address,
+                              final int port) {
+        try {
+            SpectatorServer server = new SpectatorServer(
+                game, InetAddress.getByName(address), port);
+            log.info("serving spectators on port " + server.getPort());
+        } catch (IOException e) {
+            log.warning("could not serve spectators: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Watch a broadcast game, either in a window or captured headlessly
+     * to PNG images. Arguments: -watch HOST PORT [DIR].
+     * @param args command line arguments
+     */
+    private static void watch(final String[] args) {
+        if (args.length > 3) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        SpectatorClient client;
+        try {
+            client = new SpectatorClient(args[1], Integer.parseInt(args[2]));
+        } catch (IOException e) {
+            log.severe("could not connect: " + e.getMessage());
+            return;
+        }
+        if (args.length > 3) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            FrameCapture capture = new FrameCapture(
+                client.getGame(), new File(args[3]), FrameCapture.Format.PNG,
+                CAPTURE_BUFFER, threads);
+            capture.attach();
+            client.run();
+            try {
+                capture.close();
+            } catch (InterruptedException e) {
+                log.warning("capture interrupted");
+            }
+        } else {
+            JFrame frame = new JFrame("Bounze");
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            frame.setResizable(false);
+            install(frame, client.getGame());
+            frame.setVisible(true);
+            client.start();
+        }
+    }
+
+    /**
+     * Replace the frame's placeholder with a view of the game.
+     * @param frame  the application frame
+     * @param game   the loaded game
+     */
+    private static void install(final JFrame frame, final Game game) {
+        GamePanel view = new GamePanel(game);
+        view.setSoftwareRendering(Boolean.getBoolean("bounze.software"));
+        ScorePanel score = new ScorePanel(game);
         JPanel panel = new JPanel();
         BoxLayout layout = new BoxLayout(panel, BoxLayout.Y_AXIS);
         panel.setLayout(layout);
         panel.add(score);
         panel.add(view);
+        frame.getContentPane().removeAll();
         frame.add(panel);
         frame.pack();
-        frame.setVisible(true);
+        view.requestFocusInWindow();
+    }
+
+    /**
+     * Call ready() on the event thread after the first tick that has a
+     * level to play.
+     * @param game    the loaded game
+     * @param launch  when main() started, in nanoseconds
+     * @param shown   when the first frame was shown, in nanoseconds
+     */
+    private static void awaitPlayable(final Game game, final long launch,
+                                      final long shown) {
+        game.addObserver(new Observer() {
+                public void update(final Observable o, final Object arg) {
+                    if (game.cleared()) {
+                        return;
+                    }
+                    o.deleteObserver(this);
+                    final long now = System.nanoTime();
+                    SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                ready(launch, shown, now);
+                            }
+                        });
+                }
+            });
+    }
+
+    /**
+     * Report startup timing once the game is playable. With the
+     * bounze.exitAfterStartup property set, exit shortly afterwards, as
+     * used by startup benchmarks and class-data-sharing training runs.
+     * @param launch  when main() started, in nanoseconds
+     * @param shown   when the first frame was shown, in nanoseconds
+     * @param now     when the first level was in place, in nanoseconds
+     */
+    private static void ready(final long launch, final long shown,
+                              final long now) {
+        long jvm = ManagementFactory.getRuntimeMXBean().getUptime()
+            - (System.nanoTime() - launch) / NANOS_PER_MS;
+        log.info(String.format("startup: jvm %d ms, first frame %d ms,"
+                               + " playable %d ms", jvm,
+                               jvm + (shown - launch) / NANOS_PER_MS,
+                               jvm + (now - launch) / NANOS_PER_MS));
+        if (Boolean.getBoolean("bounze.exitAfterStartup")) {
+            Timer timer = new Timer(EXIT_DELAY, new ActionListener() {
+                    public void actionPerformed(final ActionEvent e) {
+                        System.exit(0);
+                    }
+                });
+            timer.setRepeats(false);
+            timer.start();
+        }
+    }
+
+    /**
+     * Headlessly capture a game played by a random bot to an image
+     * sequence. Arguments: -capture DIR TICKS [png|raw].
+     * @param args command line arguments
+     */
+    private static void capture(final String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        FrameCapture.Format format = FrameCapture.Format.PNG;
+        if (args.length > 3) {
+            format = FrameCapture.Format.valueOf(args[3].toUpperCase());
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        final Game game = new Game(false);
+        final Random rng = new Random();
+        game.addObserver(new Observer() {
+                public void update(final Observable o, final Object arg) {
+                    if (game.isGameOver()) {
+                        game.reset();
+                    } else if (game.ballStopped() && !game.cleared()) {
+                        double angle = rng.nextDouble() * Math.PI * 2;
+                        game.shoot(new Vec2((float) Math.cos(angle),
+                                            (float) Math.sin(angle)));
+                    }
+                }
+            });
+        FrameCapture capture = new FrameCapture(game, new File(args[1]), format,
+                                                CAPTURE_BUFFER, threads);
+        capture.setSoftwareRendering(Boolean.getBoolean("bounze.software"));
+        long start = System.nanoTime();
+        try {
+            capture.record(Integer.parseInt(args[2]));
+            capture.close();
+        } catch (InterruptedException e) {
+            log.warning("capture interrupted");
+        }
+        log.info(String.format("captured %s ticks in %.1f s", args[2],
+                               (System.nanoTime() - start) / 1e9));
     }
 }
@@ -0,0 +1,632 @@
+package bounze;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.Getter;
+import lombok.extern.java.Log;
+import lombok.val;
+import org.jbox2d.callbacks.ContactImpulse;
+import org.jbox2d.callbacks.ContactListener;
+import org.jbox2d.collision.Manifold;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.contacts.Contact;
+
+/**
+ * Lays out levels as lists of edges.
+ *
+ * Several candidate layouts are generated and scored in parallel on
+ * background threads, and the best one wins. A candidate is scored on
+ * its edge count, how many of its edges the ball could reach at all, and
+ * how many a few random trial shots actually clear. Levels are prepared
+ * ahead of time, so the simulation only ever polls for a finished one.
+ */
+@Log
+public final class LevelGenerator {
+
+    /** Probability of a new chain continuing. */
+    private static final double SPRAWL = 0.8;
+
+    /** Attempts at placing an edge before a chain gives up. */
+    private static final int GIVE_UP = 16;
+
+    /* Trial simulation parameters, coarser than the real game's. */
+    private static final int TRIAL_SHOTS = 3;
+    private static final int TRIAL_STEPS = 60;
+    private static final float TRIAL_DT = 2f;
+    private static final int V_ITERATIONS = 4;
+    private static final int P_ITERATIONS = 2;
+
+    /* Offsets to a grid cell's four neighbors. */
+    private static final int[] DX = {-1, 1, 0, 0};
+    private static final int[] DY = {0, 0, -1, 1};
+
+    /**
+     * Threads that generate and score candidates, shared by every
+     * generator so that games come and go without leaking threads.
+     */
+    private static final ExecutorService EXEC = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    Thread t = new Thread(r, "bounze-generator");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+
+    private final Settings settings;
+
+    /**
+     * Create a generator for worlds with the given settings.
+     * @param settings  the world configuration
+     */
+    public LevelGenerator(final Settings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Start generating and scoring a level's candidates in the
+     * background. The same seed, level and start always give the same
+     * candidates, so the same level once they have all been scored.
+     * @param seed   the level's seed
+     * @param level  the level number
+     * @param start  where the ball will start from
+     * @return the level being prepared
+     */
+    public Level prepare(final long seed, final int level, final Vec2 start) {
+        final Vec2 from = start.clone();
+        final AtomicReference<List<Vec2[]>> unscored
+            = new AtomicReference<List<Vec2[]>>();
+        Random rng = new Random(seed);
+        List<Future<Candidate>> candidates = new ArrayList<Future<Candidate>>();
+        for (int i = 0; i < Math.max(1, settings.getCandidates()); i++) {
+            final long candidateSeed = rng.nextLong();
+            candidates.add(EXEC.submit(new Callable<Candidate>() {
+                    public Candidate call() throws InterruptedException {
+                        Random r = new Random(candidateSeed);
+                        List<Vec2[]> edges = layout(level, r);
+                        unscored.compareAndSet(null, edges);
+                        return new Candidate(edges,
+                                             quality(edges, level, from, r));
+                    }
+                }));
+        }
+        return new Level(seed, level, candidates, unscored);
+    }
+
+    /**
+     * Lay out a single candidate level.
+     * @param level  the level number
+     * @param r      the candidate's random number generator
+     * @return the level's edges as pairs of points
+     */
+    private List<Vec2[]> layout(final int level, final Random r) {
+        Layout layout = new Layout(r);
+        List<Vec2> roots = new ArrayList<Vec2>();
+        for (int i = 0; i < Math.sqrt(level) + 1; i++) {
+            Vec2 p = layout.randomPosition();
+            roots.add(p);
+            if (i > 0) {
+                layout.addEdge(roots.get(i - 1), roots.get(i));
+            }
+        }
+        for (Vec2 v : roots) {
+            layout.spider(v, SPRAWL);
+            layout.spider(v, SPRAWL);
+        }
+        /* Sprawl from extra roots until the level is big enough. */
+        for (int i = 0; layout.edges.size() < settings.getEdges()
+                 && i < settings.getEdges()
+                 && !Thread.currentThread().isInterrupted(); i++) {
+            Vec2 v = layout.randomPosition();
+            layout.spider(v, SPRAWL);
+            layout.spider(v, SPRAWL);
+        }
+        return layout.edges;
+    }
+
+    /**
+     * Score a candidate level. Higher is better.
+     * @param edges  the level's edges
+     * @param level  the level number
+     * @param start  where the ball starts from
+     * @param r      the candidate's random number generator
+     * @return the candidate's quality
+     * @throws InterruptedException if the candidate was cancelled
+     */
+    private double quality(final List<Vec2[]> edges, final int level,
+                           final Vec2 start, final Random r)
+        throws InterruptedException {
+        if (edges.isEmpty()) {
+            return 0;
+        }
+        double expected = Math.max(settings.getEdges(),
+                                   4 * (Math.sqrt(level) + 1));
+        double size = Math.min(1, edges.size() / expected);
+        double reach = reachable(edges, start);
+        double clear = clearable(edges, start, r);
+        return size * reach * (1 + clear);
+    }
+
+    /**
+     * Estimate the fraction of edges the ball could touch at all, by
+     * flood filling a grid of ball-sized cells from the start position.
+     * @param edges  the level's edges
+     * @param start  where the ball starts from
+     * @return the fraction of reachable edges
+     * @throws InterruptedException if the candidate was cancelled
+     */
+    private double reachable(final List<Vec2[]> edges, final Vec2 start)
+        throws InterruptedException {
+        float cell = settings.getBallRadius();
+        int cols = (int) Math.ceil(settings.getWidth() / cell);
+        int rows = (int) Math.ceil(settings.getHeight() / cell);
+        boolean[] blocked = new boolean[cols * rows];
+        for (Vec2[] e : edges) {
+            for (Vec2 p : samples(e, cell)) {
+                mark(blocked, cols, rows, p, cell);
+            }
+        }
+
+        boolean[] reached = new boolean[cols * rows];
+        Queue<Integer> queue = new ArrayDeque<Integer>();
+        int first = cellAt(cols, rows, start, cell);
+        reached[first] = true;
+        queue.add(first);
+        while (!queue.isEmpty()) {
+            int c = queue.remove();
+            int x = c % cols;
+            int y = c / cols;
+            for (int n = 0; n < DX.length; n++) {
+                int nx = x + DX[n];
+                int ny = y + DY[n];
+                int i = ny * cols + nx;
+                if (nx >= 0 && nx < cols && ny >= 0 && ny < rows
+                    && !reached[i] && !blocked[i]) {
+                    reached[i] = true;
+                    queue.add(i);
+                }
+            }
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        int count = 0;
+        for (Vec2[] e : edges) {
+            if (touched(e, reached, cols, rows, cell)) {
+                count++;
+            }
+        }
+        return (double) count / edges.size();
+    }
+
+    /**
+     * Return points along an edge, spaced at most half a cell apart.
+     * @param e     the edge
+     * @param cell  the cell size
+     * @return the sample points
+     */
+    private static List<Vec2> samples(final Vec2[] e, final float cell) {
+        int n = (int) Math.ceil(e[1].sub(e[0]).length() / (cell / 2)) + 2;
+        List<Vec2> points = new ArrayList<Vec2>(n);
+        for (int i = 0; i < n; i++) {
+            float t = (float) i / (n - 1);
+            points.add(e[0].mul(1 - t).addLocal(e[1].mul(t)));
+        }
+        return points;
+    }
+
+    /**
+     * Block the cells around a point.
+     * @param blocked  the blocked cells
+     * @param cols     grid columns
+     * @param rows     grid rows
+     * @param p        the point
+     * @param cell     the cell size
+     */
+    private static void mark(final boolean[] blocked, final int cols,
+                             final int rows, final Vec2 p, final float cell) {
+        int c = cellAt(cols, rows, p, cell);
+        int x = c % cols;
+        int y = c / cols;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                int nx = x + dx;
+                int ny = y + dy;
+                if (nx >= 0 && nx < cols && ny >= 0 && ny < rows) {
+                    blocked[ny * cols + nx] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if any reached cell borders the blocked cells of an edge.
+     * @param e        the edge
+     * @param reached  the reached cells
+     * @param cols     grid columns
+     * @param rows     grid rows
+     * @param cell     the cell size
+     * @return true if the edge is reachable
+     */
+    private static boolean touched(final Vec2[] e, final boolean[] reached,
+                                   final int cols, final int rows,
+                                   final float cell) {
+        for (Vec2 p : samples(e, cell)) {
+            int c = cellAt(cols, rows, p, cell);
+            int x = c % cols;
+            int y = c / cols;
+            for (int dy = -2; dy <= 2; dy++) {
+                for (int dx = -2; dx <= 2; dx++) {
+                    int nx = x + dx;
+                    int ny = y + dy;
+                    if (nx >= 0 && nx < cols && ny >= 0 && ny < rows
+                        && reached[ny * cols + nx]) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the index of the grid cell containing a point.
+     * @param cols  grid columns
+     * @param rows  grid rows
+     * @param p     the point
+     * @param cell  the cell size
+     * @return the cell index
+     */
+    private static int cellAt(final int cols, final int rows, final Vec2 p,
+                              final float cell) {
+        int x = Math.max(0, Math.min(cols - 1, (int) (p.x / cell)));
+        int y = Math.max(0, Math.min(rows - 1, (int) (p.y / cell)));
+        return y * cols + x;
+    }
+
+    /**
+     * Estimate how clearable a level is by simulating a few random shots
+     * in a private world and counting the edges they break.
+     * @param edges  the level's edges
+     * @param start  where the ball starts from
+     * @param r      the candidate's random number generator
+     * @return the fraction of edges broken
+     * @throws InterruptedException if the candidate was cancelled
+     */
+    private double clearable(final List<Vec2[]> edges, final Vec2 start,
+                             final Random r) throws InterruptedException {
+        World world = new World(new Vec2(0, 0), false);
+        int width = settings.getWidth();
+        int height = settings.getHeight();
+        addStatic(world, new Vec2(0, 0), new Vec2(width, 0), null);
+        addStatic(world, new Vec2(0, height), new Vec2(width, height), null);
+        addStatic(world, new Vec2(0, 0), new Vec2(0, height), null);
+        addStatic(world, new Vec2(width, 0), new Vec2(width, height), null);
+        for (Vec2[] e : edges) {
+            addStatic(world, e[0], e[1], e);
+        }
+
+        val ballshape = new CircleShape();
+        ballshape.m_radius = settings.getBallRadius();
+        val ballbody = new BodyDef();
+        ballbody.position = start.clone();
+        ballbody.type = BodyType.DYNAMIC;
+        ballbody.linearDamping = settings.getBallDamping();
+        val ballfix = new FixtureDef();
+        ballfix.shape = ballshape;
+        ballfix.density = settings.getBallDensity();
+        ballfix.friction = settings.getBallFriction();
+        ballfix.restitution = settings.getBallRestitution();
+        Body ball = world.createBody(ballbody);
+        ball.createFixture(ballfix);
+
+        final List<Body> hit = new ArrayList<Body>();
+        world.setContactListener(new ContactListener() {
+                public void beginContact(final Contact contact) {
+                }
+
+                public void endContact(final Contact contact) {
+                    Body a = contact.getFixtureA().getBody();
+                    Body b = contact.getFixtureB().getBody();
+                    if (a.getUserData() != null && !hit.contains(a)) {
+                        hit.add(a);
+                    } else if (b.getUserData() != null && !hit.contains(b)) {
+                        hit.add(b);
+                    }
+                }
+
+                public void preSolve(final Contact contact,
+                                     final Manifold oldManifold) {
+                }
+
+                public void postSolve(final Contact contact,
+                                      final ContactImpulse impulse) {
+                }
+            });
+
+        int broken = 0;
+        float dt = TRIAL_DT / settings.getFps();
+        for (int shot = 0; shot < TRIAL_SHOTS; shot++) {
+            double angle = r.nextDouble() * Math.PI * 2;
+            float v = settings.getBallVelocity();
+            ball.setLinearVelocity(new Vec2((float) Math.cos(angle) * v,
+                                            (float) Math.sin(angle) * v));
+            for (int i = 0; i < TRIAL_STEPS; i++) {
+                world.step(dt, V_ITERATIONS, P_ITERATIONS);
+                for (Body b : hit) {
+                    world.destroyBody(b);
+                }
+                broken += hit.size();
+                hit.clear();
+                if (ball.getLinearVelocity().length()
+                    < settings.getBallCutoff()) {
+                    break;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+        return (double) broken / edges.size();
+    }
+
+    /**
+     * Add a static edge to a trial world.
+     * @param world  the trial world
+     * @param a      the start point
+     * @param b      the end point
+     * @param data   user data marking breakable edges, or null for walls
+     */
+    private static void addStatic(final World world, final Vec2 a,
+                                  final Vec2 b, final Object data) {
+        val shape = new PolygonShape();
+        shape.setAsEdge(a, b);
+        Body body = world.createBody(new BodyDef());
+        body.createFixture(shape, 0f);
+        body.setUserData(data);
+    }
+
+    /**
+     * A level layout being built.
+     */
+    private final class Layout {
+
+        /** The candidate's random number generator. */
+        private final Random rand;
+
+        /** Vertices placed so far. */
+        private final List<Vec2> vertices = new ArrayList<Vec2>();
+
+        /** Edges placed so far, as pairs of points. */
+        private final List<Vec2[]> edges = new ArrayList<Vec2[]>();
+
+        /**
+         * Start an empty layout.
+         * @param rand  the candidate's random number generator
+         */
+        Layout(final Random rand) {
+            this.rand = rand;
+        }
+
+        /** Return true of the point is inside the world.
+         * @param p  the point to test
+         * @return true if the point is inside the world
+         */
+        private boolean inBounds(final Vec2 p) {
+            float pad = settings.getPad();
+            return p.x > pad && p.x < settings.getWidth() - pad
+                && p.y > pad && p.y < settings.getHeight() - pad;
+        }
+
+        /**
+         * Check to see if this point is close to an existing point.
+         * @param p  the point to test
+         * @return true if the point is near an existing point
+         */
+        private boolean nearVertex(final Vec2 p) {
+            for (Vec2 v : vertices) {
+                if (v.sub(p).length() < settings.getMinEdge()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Create a sprawling chain of edges.
+         * @param p     the root point
+         * @param prob  the probability of continuing
+         */
+        private void spider(final Vec2 p, final double prob) {
+            Vec2 end = null;
+            double dist, angle;
+            int giveup = 0;
+            do {
+                if (giveup++ > GIVE_UP) {
+                    return;
+                }
+                angle = rand.nextFloat() * Math.PI * 2f;
+                dist = rand.nextGaussian() * prob * settings.getReach();
+                end = new Vec2((float) (Math.cos(angle) * dist),
+                               (float) (Math.sin(angle) * dist)).add(p);
+            } while (dist < settings.getMinEdge() || !inBounds(end)
+                     || nearVertex(end));
+            addEdge(p, end);
+            if (rand.nextDouble() < prob) {
+                spider(end, prob / 2);
+            }
+        }
+
+        /**
+         * Add an edge to the layout.
+         * @param a  the start point
+         * @param b  the end point
+         */
+        private void addEdge(final Vec2 a, final Vec2 b) {
+            vertices.add(a);
+            vertices.add(b);
+            edges.add(new Vec2[] {a, b});
+        }
+
+        /**
+         * Return a uniformly distributed random position in the world.
+         * @return a random world position
+         */
+        private Vec2 randomPosition() {
+            return new Vec2(rand.nextFloat() * settings.getWidth(),
+                            rand.nextFloat() * settings.getHeight());
+        }
+    }
+
+    /**
+     * A scored candidate level.
+     */
+    private static final class Candidate {
+
+        /** The level's edges. */
+        private final List<Vec2[]> edges;
+
+        /** The level's quality, higher is better. */
+        private final double quality;
+
+        /**
+         * Create a scored candidate.
+         * @param edges    the level's edges
+         * @param quality  the level's quality
+         */
+        Candidate(final List<Vec2[]> edges, final double quality) {
+            this.edges = edges;
+            this.quality = quality;
+        }
+    }
+
+    /**
+     * A level being prepared in the background.
+     */
+    public static final class Level {
+
+        /** The level's seed. */
+        @Getter
+        private final long seed;
+
+        /** The level number. */
+        @Getter
+        private final int number;
+
+        /** The candidates being generated and scored. */
+        private final List<Future<Candidate>> candidates;
+
+        /** The first candidate laid out, before it was scored. */
+        private final AtomicReference<List<Vec2[]>> unscored;
+
+        /**
+         * Track a level's candidates.
+         * @param seed        the level's seed
+         * @param number      the level number
+         * @param candidates  the candidates being generated and scored
+         * @param unscored    receives the first candidate laid out
+         */
+        Level(final long seed, final int number,
+              final List<Future<Candidate>> candidates,
+              final AtomicReference<List<Vec2[]>> unscored) {
+            this.seed = seed;
+            this.number = number;
+            this.candidates = candidates;
+            this.unscored = unscored;
+        }
+
+        /**
+         * Return true once every candidate has been scored.
+         * @return true if getEdges() will consider every candidate
+         */
+        public boolean isReady() {
+            for (Future<Candidate> f : candidates) {
+                if (!f.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Return true once any candidate has been laid out.
+         * @return true if getEdges() has something to choose from
+         */
+        public boolean isStarted() {
+            if (unscored.get() != null) {
+                return true;
+            }
+            for (Future<Candidate> f : candidates) {
+                if (f.isDone()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Return the best scored candidate and cancel any still being
+         * scored. If none has been scored yet, the first one laid out is
+         * returned unscored.
+         * @return the level's edges as pairs of points
+         */
+        public List<Vec2[]> getEdges() {
+            Candidate best = null;
+            for (Future<Candidate> f : candidates) {
+                if (!f.isDone()) {
+                    f.cancel(true);
+                    continue;
+                }
+                try {
+                    Candidate c = f.get();
+                    if (best == null || c.quality > best.quality) {
+                        best = c;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (CancellationException e) {
+                    log.info("level candidate cancelled");
+                } catch (ExecutionException e) {
+                    log.warning("level candidate failed: " + e.getCause());
+                }
+            }
+            if (best != null) {
+                return best.edges;
+            } else if (unscored.get() != null) {
+                log.info("no level candidate scored within budget");
+                return unscored.get();
+            }
+            return new ArrayList<Vec2[]>();
+        }
+
+        /**
+         * Stop preparing this level.
+         */
+        public void cancel() {
+            for (Future<Candidate> f : candidates) {
+                f.cancel(true);
+            }
+        }
+    }
+}
@@ -1,19 +1,21 @@
 package bounze;
 
-import lombok.Data;
-import lombok.RequiredArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
 import org.jbox2d.common.Vec2;
 
 /**
- * Represents a floating score animation.
+ * Represents a floating score animation. Scores are pooled and reused by
+ * the game, so they compare by identity.
  */
-@Data
-@RequiredArgsConstructor
+@Getter
 public class Score {
 
-    private final Vec2 position;
+    private final Vec2 position = new Vec2();
 
-    private final int score;
+    @Setter
+    private int score;
 
+    @Setter
     private long deathTick = -1;
 }
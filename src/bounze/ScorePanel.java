@@ -26,21 +26,31 @@ public final class ScorePanel extends JComponent implements Observer {
     private static final Font FONT = new Font(Font.SANS_SERIF, Font.PLAIN, 28);
     private static final Font LABEL_FONT
         = new Font(Font.SANS_SERIF, Font.BOLD, 12);
-    private static final int HEIGHT = 50;
+    /** Height of the panel. */
+    static final int HEIGHT = 50;
     private static final int PAD = 5;
 
     private static final Stroke STROKE = new BasicStroke(2);
 
+    private static final String SCORE_LABEL = "score";
+    private static final String LEVEL_LABEL = "level";
+    private static final String SHOTS_LABEL = "shots";
+
     private final Game game;
 
+    /* Displayed values, only re-formatted when they change. */
+    private final Counter score = new Counter();
+    private final Counter level = new Counter();
+    private final Counter shots = new Counter();
+
     /**
      * Create a new panel displaying a game.
      * @param game  the game to display
      */
     public ScorePanel(final Game game) {
         this.game = game;
-        Dimension d = new Dimension((int) (Game.WIDTH * GamePanel.SCALE),
-                                    HEIGHT);
+        int width = game.getSettings().getWidth();
+        Dimension d = new Dimension((int) (width * GamePanel.SCALE), HEIGHT);
         setPreferredSize(d);
         game.addObserver(this);
     }
@@ -54,44 +64,68 @@ public final class ScorePanel extends JComponent implements Observer {
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                            RenderingHints.VALUE_ANTIALIAS_ON);
 
-        String score = "" + game.getScore();
-        String shots = "" + game.getShots();
-        String level = "" + game.getLevel();
+        String sscore = score.text(game.getScore());
+        String sshots = shots.text(game.getShots());
+        String slevel = level.text(game.getLevel());
 
         g.setFont(FONT);
         FontMetrics fm = g.getFontMetrics();
         g.setColor(FORE);
-        g.drawString(score, PAD, HEIGHT - PAD);
-        g.drawString(level, getWidth() / 2 - fm.stringWidth(level) / 2,
+        g.drawString(sscore, PAD, HEIGHT - PAD);
+        g.drawString(slevel, getWidth() / 2 - fm.stringWidth(slevel) / 2,
                      HEIGHT - PAD);
-        g.drawString(shots, getWidth() - PAD - fm.stringWidth(shots),
+        g.drawString(sshots, getWidth() - PAD - fm.stringWidth(sshots),
                      HEIGHT - PAD);
 
-        String sscore = "score";
-        String slevel = "level";
-        String sshots = "shots";
-
         g.setColor(LABEL);
         g.setFont(LABEL_FONT);
         fm = g.getFontMetrics();
-        g.drawString(sscore, PAD, fm.getAscent());
-        g.drawString(slevel, getWidth() / 2 - fm.stringWidth(slevel) / 2,
+        g.drawString(SCORE_LABEL, PAD, fm.getAscent());
+        g.drawString(LEVEL_LABEL,
+                     getWidth() / 2 - fm.stringWidth(LEVEL_LABEL) / 2,
                      fm.getAscent());
-        g.drawString(sshots, getWidth() - PAD - fm.stringWidth(sshots),
+        g.drawString(SHOTS_LABEL,
+                     getWidth() - PAD - fm.stringWidth(SHOTS_LABEL),
                      fm.getAscent());
 
         g.setStroke(STROKE);
         g.drawLine(PAD, fm.getAscent() + PAD,
-                   2 * PAD + fm.stringWidth(slevel), fm.getAscent() + PAD);
-        g.drawLine(getWidth() / 2 - fm.stringWidth(slevel) / 2 - PAD,
+                   2 * PAD + fm.stringWidth(LEVEL_LABEL),
+                   fm.getAscent() + PAD);
+        g.drawLine(getWidth() / 2 - fm.stringWidth(LEVEL_LABEL) / 2 - PAD,
                    fm.getAscent() + PAD,
-                   getWidth() / 2 + fm.stringWidth(slevel) / 2 + PAD,
+                   getWidth() / 2 + fm.stringWidth(LEVEL_LABEL) / 2 + PAD,
                    fm.getAscent() + PAD);
-        g.drawLine(getWidth() - 2 * PAD - fm.stringWidth(sshots),
+        g.drawLine(getWidth() - 2 * PAD - fm.stringWidth(SHOTS_LABEL),
                    fm.getAscent() + PAD,
                    getWidth() - PAD, fm.getAscent() + PAD);
     }
 
+    /**
+     * A displayed number whose text is only rebuilt when it changes.
+     */
+    private static final class Counter {
+
+        /** The value last formatted. */
+        private int value = Integer.MIN_VALUE;
+
+        /** The formatted value. */
+        private String text;
+
+        /**
+         * Return the text for a value, reusing the last one if unchanged.
+         * @param v  the value to display
+         * @return the value as text
+         */
+        public String text(final int v) {
+            if (text == null || v != value) {
+                value = v;
+                text = Integer.toString(v);
+            }
+            return text;
+        }
+    }
+
     @Override
     public void update(final Observable o, final Object arg) {
         repaint();
@@ -0,0 +1,463 @@
+package bounze;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/**
+ * A persistent local leaderboard of finished games.
+ *
+ * Results are appended to a log of fixed-size records, each with a CRC32
+ * checksum, by a writer thread that writes and syncs whatever has queued
+ * up in one batch. Game threads only enqueue. An in-memory top list and
+ * a best result per recently played seed are rebuilt from the log on
+ * startup, dropping a torn or corrupt tail. Every so often the log is
+ * compacted down to just the indexed results by writing a new file and
+ * renaming it over the old one.
+ */
+@Log
+public final class ScoreStore implements Observer, Runnable {
+
+    /** Identifies a score log: "BNZS". */
+    private static final int MAGIC = 0x424e5a53;
+
+    /** Bytes in the file header. */
+    private static final int HEADER_SIZE = 4;
+
+    /** Bytes in a record: score, level, seed, shots and checksum. */
+    private static final int RECORD_SIZE = 4 + 4 + 8 + 4 + 4;
+
+    /** Bytes of a record covered by its checksum. */
+    private static final int DATA_SIZE = RECORD_SIZE - 4;
+
+    /** Results kept in the top list. */
+    private static final int TOP_LIMIT = 100;
+
+    /** Seeds kept in the per-seed index, least recently played dropped. */
+    private static final int SEED_LIMIT = 10000;
+
+    /** Records appended between compactions. */
+    private static final int COMPACT_INTERVAL = 10000;
+
+    /** Orders results best first, earlier results first among equals. */
+    private static final Comparator<Entry> RANK = new Comparator<Entry>() {
+        public int compare(final Entry a, final Entry b) {
+            if (a.score != b.score) {
+                return b.score - a.score;
+            }
+            return Long.signum(a.order - b.order);
+        }
+    };
+
+    /** Queued to stop the writer thread. */
+    private static final Entry CLOSE = new Entry(0, 0, 0, 0);
+
+    private final File file;
+    private final File temp;
+    private FileChannel channel;
+
+    /** Results waiting to be written. */
+    private final BlockingQueue<Entry> queue
+        = new LinkedBlockingQueue<Entry>();
+
+    /** The writer thread. */
+    private final Thread thread;
+
+    /** Why the writer stopped early, if it did. */
+    private volatile IOException failure;
+
+    /** True once dropping results after a failure has been logged. */
+    private final AtomicBoolean warned = new AtomicBoolean(false);
+
+    /* Index, guarded by this. */
+    private final List<Entry> top = new ArrayList<Entry>();
+    private final Map<Long, Entry> seeds
+        = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(
+                final Map.Entry<Long, Entry> eldest) {
+                return size() > SEED_LIMIT;
+            }
+        };
+
+    /** Order given to the next result. */
+    private long nextOrder = 0;
+
+    /** Records appended since the last compaction. */
+    private int appended = 0;
+
+    /** Whether each observed game was over when last seen. */
+    private final Map<Observable, Boolean> over
+        = Collections.synchronizedMap(new WeakHashMap<Observable, Boolean>());
+
+    /** Record and checksum scratch space, used by one thread at a time. */
+    private ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 64);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Open a score log, creating it if needed, and start the writer.
+     * @param file  the log file
+     * @throws IOException if the log could not be read or created
+     */
+    public ScoreStore(final File file) throws IOException {
+        this.file = file;
+        temp = new File(file.getPath() + ".tmp");
+        if (!file.exists() && temp.exists() && !temp.renameTo(file)) {
+            throw new IOException("could not recover " + temp);
+        }
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        load();
+        thread = new Thread(this, "bounze-scores");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Record every game that ends from now on.
+     * @param game  the game to watch
+     */
+    public void attach(final Game game) {
+        over.put(game, game.isGameOver());
+        game.addObserver(this);
+    }
+
+    @Override
+    public void update(final Observable o, final Object arg) {
+        Game game = (Game) o;
+        boolean now = game.isGameOver();
+        Boolean was = over.put(o, now);
+        if (now && !Boolean.TRUE.equals(was)) {
+            record(game.getScore(), game.getLevel(), game.getSeed(),
+                   game.getShotsFired());
+        }
+    }
+
+    /**
+     * Queue a finished game to be stored. Returns immediately. Once the
+     * log has failed, results are dropped instead.
+     * @param score  the final score
+     * @param level  the level reached
+     * @param seed   the game's seed
+     * @param shots  the number of shots taken
+     */
+    public void record(final int score, final int level, final long seed,
+                       final int shots) {
+        if (failure != null) {
+            if (warned.compareAndSet(false, true)) {
+                log.warning("dropping results, score log failed: "
+                            + failure.getMessage());
+            }
+            return;
+        }
+        queue.add(new Entry(score, level, seed, shots));
+    }
+
+    /**
+     * Return the best results stored so far, best first.
+     * @return a copy of the top list
+     */
+    public synchronized List<Entry> getTop() {
+        return new ArrayList<Entry>(top);
+    }
+
+    /**
+     * Return the best result stored for a seed.
+     * @param seed  the seed
+     * @return the best result, or null if none is indexed
+     */
+    public synchronized Entry getBest(final long seed) {
+        return seeds.get(seed);
+    }
+
+    /**
+     * Write any queued results and close the log.
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException if the log failed and results were lost
+     */
+    public void close() throws InterruptedException, IOException {
+        queue.add(CLOSE);
+        thread.join();
+        if (failure != null) {
+            throw new IOException("score log failed, results were lost",
+                                  failure);
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Entry> batch = new ArrayList<Entry>();
+        boolean closing = false;
+        try {
+            while (!closing) {
+                batch.clear();
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                closing = batch.remove(CLOSE);
+                append(batch);
+                if (appended >= COMPACT_INTERVAL) {
+                    compact();
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warning("score writer interrupted");
+            failure = new IOException("score writer interrupted");
+        } catch (IOException e) {
+            log.severe("could not store scores: " + e.getMessage());
+            failure = e;
+        } finally {
+            queue.clear();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.info("could not close score log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Rebuild the index from the log, truncating any invalid tail.
+     * @throws IOException if the log could not be read
+     */
+    private void load() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(false);
+            channel.position(HEADER_SIZE);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a score log");
+        }
+        long valid = HEADER_SIZE;
+        long records = 0;
+        channel.position(HEADER_SIZE);
+        buffer.clear();
+        while (channel.read(buffer) > 0 || buffer.position() > 0) {
+            buffer.flip();
+            boolean torn = false;
+            while (buffer.remaining() >= RECORD_SIZE) {
+                Entry e = decode(buffer);
+                if (e == null) {
+                    torn = true;
+                    break;
+                }
+                index(e);
+                valid += RECORD_SIZE;
+                records++;
+            }
+            if (torn || valid + buffer.remaining() >= size) {
+                break;
+            }
+            buffer.compact();
+        }
+        if (valid < size) {
+            log.warning("dropping " + (size - valid)
+                        + " invalid bytes from " + file);
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+        appended = (int) Math.min(records, COMPACT_INTERVAL);
+    }
+
+    /**
+     * Append results to the log, then index them.
+     * @param batch  the results
+     * @throws IOException if writing failed
+     */
+    private void append(final List<Entry> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        write(channel, batch);
+        channel.force(false);
+        synchronized (this) {
+            for (Entry e : batch) {
+                index(e);
+            }
+        }
+        appended += batch.size();
+    }
+
+    /**
+     * Replace the log with one holding only the indexed results.
+     * @throws IOException if the new log could not be written
+     */
+    private void compact() throws IOException {
+        List<Entry> kept;
+        synchronized (this) {
+            Set<Entry> set = new HashSet<Entry>(top);
+            set.addAll(seeds.values());
+            kept = new ArrayList<Entry>(set);
+        }
+        Collections.sort(kept, new Comparator<Entry>() {
+                public int compare(final Entry a, final Entry b) {
+                    return Long.signum(a.order - b.order);
+                }
+            });
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            FileChannel c = out.getChannel();
+            c.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.flip();
+            c.write(header);
+            write(c, kept);
+            c.force(true);
+        } finally {
+            out.close();
+        }
+        channel.close();
+        if (!temp.renameTo(file)) {
+            /* Some platforms won't rename over an existing file. */
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("could not replace " + file);
+            }
+        }
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.position(channel.size());
+        appended = 0;
+        log.info("compacted score log to " + kept.size() + " results");
+    }
+
+    /**
+     * Encode and write results at a channel's position.
+     * @param c        the channel
+     * @param entries  the results
+     * @throws IOException if writing failed
+     */
+    private void write(final FileChannel c, final List<Entry> entries)
+        throws IOException {
+        int size = entries.size() * RECORD_SIZE;
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size);
+        }
+        buffer.clear();
+        for (Entry e : entries) {
+            int start = buffer.position();
+            buffer.putInt(e.score);
+            buffer.putInt(e.level);
+            buffer.putLong(e.seed);
+            buffer.putInt(e.shots);
+            crc.reset();
+            crc.update(buffer.array(), start, DATA_SIZE);
+            buffer.putInt((int) crc.getValue());
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            c.write(buffer);
+        }
+    }
+
+    /**
+     * Decode the next record, checking its checksum.
+     * @param buf  a heap buffer with at least one record remaining
+     * @return the result, or null if the record is corrupt
+     */
+    private Entry decode(final ByteBuffer buf) {
+        int start = buf.position();
+        crc.reset();
+        crc.update(buf.array(), buf.arrayOffset() + start, DATA_SIZE);
+        int score = buf.getInt();
+        int level = buf.getInt();
+        long seed = buf.getLong();
+        int shots = buf.getInt();
+        if (buf.getInt() != (int) crc.getValue()) {
+            return null;
+        }
+        return new Entry(score, level, seed, shots);
+    }
+
+    /**
+     * Add a result to the index.
+     * @param e  the result
+     */
+    private void index(final Entry e) {
+        e.order = nextOrder++;
+        Entry best = seeds.get(e.seed);
+        if (best == null || RANK.compare(e, best) < 0) {
+            seeds.put(e.seed, e);
+        }
+        int i = top.size();
+        while (i > 0 && RANK.compare(e, top.get(i - 1)) < 0) {
+            i--;
+        }
+        if (i < TOP_LIMIT) {
+            top.add(i, e);
+            if (top.size() > TOP_LIMIT) {
+                top.remove(TOP_LIMIT);
+            }
+        }
+    }
+
+    /**
+     * A stored result of a finished game.
+     */
+    public static final class Entry {
+
+        /** The final score. */
+        @Getter
+        private final int score;
+
+        /** The level reached. */
+        @Getter
+        private final int level;
+
+        /** The game's seed. */
+        @Getter
+        private final long seed;
+
+        /** The number of shots taken. */
+        @Getter
+        private final int shots;
+
+        /** Position in the log, for ordering equal scores. */
+        private long order;
+
+        /**
+         * Create a new result.
+         * @param score  the final score
+         * @param level  the level reached
+         * @param seed   the game's seed
+         * @param shots  the number of shots taken
+         */
+        Entry(final int score, final int level, final long seed,
+              final int shots) {
+            this.score = score;
+            this.level = level;
+            this.seed = seed;
+            this.shots = shots;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d (level %d, %d shots, seed %d)",
+                                 score, level, shots, seed);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package bounze;
+
+import lombok.Data;
+
+/**
+ * Per-game world configuration. The defaults are the standard game; a
+ * game reads its settings throughout its life, so don't change them
+ * after handing them to a Game.
+ */
+@Data
+public class Settings {
+
+    /** Edges in a typical standard level, used to size stress arenas. */
+    private static final int STANDARD_EDGES = 10;
+
+    /** Steps per second. */
+    private int fps = Game.FPS;
+
+    /** World width. */
+    private int width = Game.WIDTH;
+
+    /** World height. */
+    private int height = Game.HEIGHT;
+
+    /* JBox2D ball parameters. */
+    private float ballRadius = 1.25f;
+    private float ballDensity = 1f;
+    private float ballFriction = 0f;
+    private float ballRestitution = 0.85f;
+    private float ballDamping = 0.7f;
+    private float ballCutoff = 5.0f;
+    private float ballVelocity = 60.0f;
+
+    /** Number of balls, all shot together. */
+    private int balls = 1;
+
+    /*
+     * Edge lengths are in world units and are sized for the standard
+     * world. They don't follow setWidth() or setHeight(), which is what
+     * keeps stress arena edges at the standard length.
+     */
+
+    /** Minimum edge length. */
+    private float minEdge = Math.max(Game.WIDTH, Game.HEIGHT) / 16;
+
+    /** Typical edge length when sprawling out new edges. */
+    private float reach = Math.min(Game.WIDTH, Game.HEIGHT) / 4f;
+
+    /** Keep new vertices this far from the walls, in world units. */
+    private float pad = 3;
+
+    /** Keep adding edges to each level until it has at least this many. */
+    private int edges = 0;
+
+    /** Number of candidate levels to generate and score per level. */
+    private int candidates = 4;
+
+    /**
+     * Wall-clock milliseconds a due level waits for all of its candidates
+     * before taking the best one scored so far. Levels are prepared ahead
+     * of time, so this only matters after a reset, a regenerate or a
+     * quickly cleared level. 0 waits for every candidate, so that levels
+     * depend only on the game's seed.
+     */
+    private long levelBudget = 100;
+
+    /**
+     * Set the number of balls. The first is the player's ball, so there
+     * must be at least one.
+     * @param balls  the number of balls
+     */
+    public void setBalls(final int balls) {
+        if (balls < 1) {
+            throw new IllegalArgumentException("need at least one ball");
+        }
+        this.balls = balls;
+    }
+
+    /**
+     * Create settings for a stress arena. The arena grows with the edge
+     * count so that edges keep the standard length and density.
+     * @param edges  the minimum number of edges per level
+     * @param balls  the number of balls
+     * @return the stress settings
+     */
+    public static Settings stress(final int edges, final int balls) {
+        Settings s = new Settings();
+        double k = Math.sqrt(Math.max(1.0, (double) edges / STANDARD_EDGES));
+        s.setWidth((int) Math.ceil(s.getWidth() * k));
+        s.setHeight((int) Math.ceil(s.getHeight() * k));
+        s.setEdges(edges);
+        s.setBalls(balls);
+        return s;
+    }
+}
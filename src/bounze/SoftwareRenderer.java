@@ -0,0 +1,391 @@
+package bounze;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import lombok.extern.java.Log;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+
+/**
+ * Rasterizes the game geometry directly into an int[] framebuffer.
+ *
+ * The scene is first gathered into flat primitive lists, then the image
+ * is split into horizontal bands which are rasterized in parallel. Each
+ * band only ever writes its own rows, so no locking is needed. Text is
+ * not handled here and is drawn over the result with Java2D.
+ */
+@Log
+public final class SoftwareRenderer {
+
+    /** Half of the line width, in logical pixels. */
+    private static final float HALF_WIDTH = 1f;
+
+    /* Floats per primitive in the primitive lists. */
+    private static final int SEGMENT_SIZE = 4;
+    private static final int CIRCLE_SIZE = 3;
+
+    /** Number of horizontal bands to split each frame into. */
+    private final int bands;
+
+    /** Threads that rasterize the bands. */
+    private final ExecutorService exec;
+
+    /** One task per band, reused every frame. */
+    private final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+    /** The framebuffer image. */
+    private BufferedImage image;
+
+    /** The framebuffer image's backing array. */
+    private int[] pixels;
+
+    /** Segment endpoints, in pixels: x0, y0, x1, y1. */
+    private float[] segments = new float[SEGMENT_SIZE * 64];
+
+    /** Segment colors as 0xAARRGGBB. */
+    private int[] segmentColors = new int[64];
+
+    /** Number of segments in the current frame. */
+    private int segmentCount;
+
+    /** Circles, in pixels: x, y, radius. */
+    private float[] circles = new float[CIRCLE_SIZE * 4];
+
+    /** Number of circles in the current frame. */
+    private int circleCount;
+
+    /** Half of the line width in device pixels for the current frame. */
+    private float halfWidth = HALF_WIDTH;
+
+    /**
+     * Create a renderer using one band per available processor.
+     */
+    public SoftwareRenderer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a renderer with a specific number of bands.
+     * @param bands  the number of bands rendered in parallel
+     */
+    public SoftwareRenderer(final int bands) {
+        this.bands = Math.max(1, bands);
+        exec = Executors.newFixedThreadPool(this.bands, new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    Thread t = new Thread(r, "bounze-raster");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        for (int i = 0; i < this.bands; i++) {
+            final int band = i;
+            tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        int n = SoftwareRenderer.this.bands;
+                        int rows = (image.getHeight() + n - 1) / n;
+                        int y0 = band * rows;
+                        int y1 = Math.min(image.getHeight(), y0 + rows);
+                        if (y0 < y1) {
+                            rasterize(y0, y1);
+                        }
+                        return null;
+                    }
+                });
+        }
+    }
+
+    /**
+     * Render the current state of a game.
+     * @param game    the game to render
+     * @param aim     where the pointer is aimed, in world units
+     * @param width   the image width
+     * @param height  the image height
+     * @return the rendered image, reused by the next call
+     */
+    public BufferedImage render(final Game game, final Vec2 aim,
+                                final int width, final int height) {
+        return render(game, aim, width, height, 1.0);
+    }
+
+    /**
+     * Render the current state of a game at a device scale, such as 2 on
+     * a high-DPI screen. The image is that many times the logical size
+     * and should be drawn with the inverse scale.
+     * @param game           the game to render
+     * @param aim            where the pointer is aimed, in world units
+     * @param logicalWidth   the logical surface width
+     * @param logicalHeight  the logical surface height
+     * @param scale          device pixels per logical pixel
+     * @return the rendered image, reused by the next call
+     */
+    public BufferedImage render(final Game game, final Vec2 aim,
+                                final int logicalWidth,
+                                final int logicalHeight,
+                                final double scale) {
+        int width = (int) Math.ceil(logicalWidth * scale);
+        int height = (int) Math.ceil(logicalHeight * scale);
+        halfWidth = (float) (HALF_WIDTH * scale);
+        if (image == null
+            || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height,
+                                      BufferedImage.TYPE_INT_RGB);
+            DataBufferInt buffer = (DataBufferInt) image.getRaster()
+                .getDataBuffer();
+            pixels = buffer.getData();
+        }
+        gather(game, aim, width, height, (float) scale);
+        try {
+            for (Future<Void> f : exec.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warning("rasterization failed: " + e.getCause());
+        }
+        return image;
+    }
+
+    /**
+     * Stop the rasterizing threads. The renderer can't be used after.
+     */
+    public void close() {
+        exec.shutdown();
+    }
+
+    /**
+     * Collect the frame's primitives from the game.
+     * @param game    the game to render
+     * @param aim     where the pointer is aimed, in world units
+     * @param width   the image width
+     * @param height  the image height
+     * @param scale   device pixels per logical pixel
+     */
+    private void gather(final Game game, final Vec2 aim,
+                        final int width, final int height,
+                        final float scale) {
+        segmentCount = 0;
+        circleCount = 0;
+        float s = GamePanel.SCALE * scale;
+        int fore = GamePanel.FORE.getRGB();
+
+        /* Border, inset so the stroke sits inside the image. */
+        float in = halfWidth;
+        segment(in, in, width - in, in, fore);
+        segment(width - in, in, width - in, height - in, fore);
+        segment(width - in, height - in, in, height - in, fore);
+        segment(in, height - in, in, in, fore);
+
+        for (Edge e : game.getLiveEdges()) {
+            segment(e.getA().x * s, e.getA().y * s,
+                    e.getB().x * s, e.getB().y * s, fore);
+        }
+        int fps = game.getSettings().getFps();
+        for (Edge e : game.getDeadEdges()) {
+            int age = (int) (game.getTick() - e.getDeathTick());
+            if (age < fps) {
+                int alpha = 255 - age * 255 / fps;
+                segment(e.getA().x * s, e.getA().y * s,
+                        e.getB().x * s, e.getB().y * s,
+                        (alpha << 24) | (fore & 0xffffff));
+            }
+        }
+
+        for (Body b : game.getBalls()) {
+            Vec2 p = b.getPosition();
+            float r = ((CircleShape) b.getFixtureList().getShape()).m_radius;
+            circle(p.x * s, p.y * s, r * s);
+        }
+
+        Vec2 pos = game.getBall().getPosition();
+
+        if (game.ballStopped() && !game.isGameOver()) {
+            float dx = aim.x - pos.x;
+            float dy = aim.y - pos.y;
+            float len = (float) Math.sqrt(dx * dx + dy * dy);
+            float cos = 1;
+            float sin = 0;
+            if (len > 0) {
+                cos = dx / len;
+                sin = dy / len;
+            }
+            float tipx = (pos.x + 4 * cos) * s;
+            float tipy = (pos.y + 4 * sin) * s;
+            segment((pos.x + 3 * cos - sin) * s, (pos.y + 3 * sin + cos) * s,
+                    tipx, tipy, fore);
+            segment(tipx, tipy,
+                    (pos.x + 3 * cos + sin) * s, (pos.y + 3 * sin - cos) * s,
+                    fore);
+        }
+    }
+
+    /**
+     * Queue a segment for this frame.
+     * @param x0     start x
+     * @param y0     start y
+     * @param x1     end x
+     * @param y1     end y
+     * @param color  the segment color as 0xAARRGGBB
+     */
+    private void segment(final float x0, final float y0,
+                         final float x1, final float y1, final int color) {
+        if (segmentCount == segmentColors.length) {
+            float[] s = new float[segments.length * 2];
+            System.arraycopy(segments, 0, s, 0, segments.length);
+            segments = s;
+            int[] c = new int[segmentColors.length * 2];
+            System.arraycopy(segmentColors, 0, c, 0, segmentColors.length);
+            segmentColors = c;
+        }
+        int i = segmentCount * SEGMENT_SIZE;
+        segments[i] = x0;
+        segments[i + 1] = y0;
+        segments[i + 2] = x1;
+        segments[i + 3] = y1;
+        segmentColors[segmentCount++] = color;
+    }
+
+    /**
+     * Queue a filled and outlined circle for this frame.
+     * @param x  center x
+     * @param y  center y
+     * @param r  radius
+     */
+    private void circle(final float x, final float y, final float r) {
+        int i = circleCount * CIRCLE_SIZE;
+        if (i == circles.length) {
+            float[] c = new float[circles.length * 2];
+            System.arraycopy(circles, 0, c, 0, circles.length);
+            circles = c;
+        }
+        circles[i] = x;
+        circles[i + 1] = y;
+        circles[i + 2] = r;
+        circleCount++;
+    }
+
+    /**
+     * Rasterize the gathered primitives into a band of rows.
+     * @param y0  the first row, inclusive
+     * @param y1  the last row, exclusive
+     */
+    private void rasterize(final int y0, final int y1) {
+        int width = image.getWidth();
+        Arrays.fill(pixels, y0 * width, y1 * width,
+                              GamePanel.BACK.getRGB());
+        for (int i = 0; i < segmentCount; i++) {
+            int j = i * SEGMENT_SIZE;
+            drawSegment(segments[j], segments[j + 1],
+                        segments[j + 2], segments[j + 3],
+                        segmentColors[i], y0, y1);
+        }
+        for (int i = 0; i < circleCount; i++) {
+            int j = i * CIRCLE_SIZE;
+            drawCircle(circles[j], circles[j + 1], circles[j + 2], y0, y1);
+        }
+    }
+
+    /**
+     * Draw an anti-aliased segment, clipped to a band. Coverage is
+     * estimated from the distance between the pixel center and the
+     * segment.
+     * @param ax     start x
+     * @param ay     start y
+     * @param bx     end x
+     * @param by     end y
+     * @param color  the segment color as 0xAARRGGBB
+     * @param y0     the first row of the band, inclusive
+     * @param y1     the last row of the band, exclusive
+     */
+    private void drawSegment(final float ax, final float ay,
+                             final float bx, final float by, final int color,
+                             final int y0, final int y1) {
+        float pad = halfWidth + 1;
+        int width = image.getWidth();
+        int minx = Math.max(0, (int) Math.floor(Math.min(ax, bx) - pad));
+        int maxx = Math.min(width - 1, (int) Math.ceil(Math.max(ax, bx) + pad));
+        int miny = Math.max(y0, (int) Math.floor(Math.min(ay, by) - pad));
+        int maxy = Math.min(y1 - 1, (int) Math.ceil(Math.max(ay, by) + pad));
+        float dx = bx - ax;
+        float dy = by - ay;
+        float len2 = dx * dx + dy * dy;
+        float alpha = (color >>> 24) / 255f;
+        for (int y = miny; y <= maxy; y++) {
+            float py = y + 0.5f - ay;
+            for (int x = minx; x <= maxx; x++) {
+                float px = x + 0.5f - ax;
+                float t = 0;
+                if (len2 > 0) {
+                    t = Math.max(0, Math.min(1, (px * dx + py * dy) / len2));
+                }
+                float ex = px - t * dx;
+                float ey = py - t * dy;
+                float d = (float) Math.sqrt(ex * ex + ey * ey);
+                float coverage = halfWidth + 0.5f - d;
+                if (coverage > 0) {
+                    blend(y * width + x, color, alpha * Math.min(1, coverage));
+                }
+            }
+        }
+    }
+
+    /**
+     * Draw an anti-aliased, filled and outlined circle, clipped to a band.
+     * @param cx  center x
+     * @param cy  center y
+     * @param r   radius
+     * @param y0  the first row of the band, inclusive
+     * @param y1  the last row of the band, exclusive
+     */
+    private void drawCircle(final float cx, final float cy, final float r,
+                            final int y0, final int y1) {
+        float pad = r + halfWidth + 1;
+        int width = image.getWidth();
+        int minx = Math.max(0, (int) Math.floor(cx - pad));
+        int maxx = Math.min(width - 1, (int) Math.ceil(cx + pad));
+        int miny = Math.max(y0, (int) Math.floor(cy - pad));
+        int maxy = Math.min(y1 - 1, (int) Math.ceil(cy + pad));
+        int fill = GamePanel.FILL.getRGB();
+        int fore = GamePanel.FORE.getRGB();
+        for (int y = miny; y <= maxy; y++) {
+            float py = y + 0.5f - cy;
+            for (int x = minx; x <= maxx; x++) {
+                float px = x + 0.5f - cx;
+                float d = (float) Math.sqrt(px * px + py * py);
+                int i = y * width + x;
+                float inside = r + 0.5f - d;
+                if (inside > 0) {
+                    blend(i, fill, Math.min(1, inside));
+                }
+                float ring = halfWidth + 0.5f - Math.abs(d - r);
+                if (ring > 0) {
+                    blend(i, fore, Math.min(1, ring));
+                }
+            }
+        }
+    }
+
+    /**
+     * Blend a color into a framebuffer pixel.
+     * @param i      the pixel index
+     * @param color  the source color, alpha ignored
+     * @param a      the source opacity, 0 to 1
+     */
+    private void blend(final int i, final int color, final float a) {
+        int dst = pixels[i];
+        int k = (int) (a * 256);
+        int rb = ((color & 0xff00ff) * k + (dst & 0xff00ff) * (256 - k)) >>> 8;
+        int g = ((color & 0x00ff00) * k + (dst & 0x00ff00) * (256 - k)) >>> 8;
+        pixels[i] = (rb & 0xff00ff) | (g & 0x00ff00);
+    }
+}
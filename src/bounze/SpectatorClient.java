@@ -0,0 +1,176 @@
+package bounze;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+/**
+ * Watches a game broadcast by a SpectatorServer.
+ *
+ * The broadcast is applied to a local, unscheduled mirror game, so the
+ * usual GamePanel, ScorePanel or FrameCapture can display it unchanged.
+ */
+@Log
+public final class SpectatorClient implements Runnable {
+
+    private final SocketChannel channel;
+
+    /** The local copy of the spectated game. */
+    @Getter
+    private final Game game;
+
+    /** Buffer for the length prefix of each message. */
+    private final ByteBuffer length
+        = ByteBuffer.allocate(SpectatorServer.LENGTH_SIZE);
+
+    /** Buffer for message bodies, grown as needed. */
+    private ByteBuffer body = ByteBuffer.allocate(1024);
+
+    /** True until the client is closed. */
+    private volatile boolean running = true;
+
+    /**
+     * Connect to a spectator server and wait for its first keyframe.
+     * @param host  the server host
+     * @param port  the server port
+     * @throws IOException if the connection failed
+     */
+    public SpectatorClient(final String host, final int port)
+        throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        ByteBuffer msg = read();
+        while (msg.get(0) != SpectatorServer.KEYFRAME) {
+            msg = read();
+        }
+        int balls = msg.getInt(SpectatorServer.HEADER_SIZE - 4);
+        if (balls < 1) {
+            throw new IOException("keyframe without balls");
+        }
+        int position = keyframeOffset(msg);
+        Settings settings = new Settings();
+        settings.setBalls(balls);
+        settings.setWidth(msg.getInt(position));
+        settings.setHeight(msg.getInt(position + 4));
+        settings.setBallRadius(msg.getFloat(position + 8));
+        settings.setFps(msg.getInt(position + 12));
+        game = new Game(settings, false);
+        apply(msg);
+    }
+
+    /**
+     * Follow the broadcast on a new thread.
+     */
+    public void start() {
+        Thread thread = new Thread(this, "bounze-spectator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Disconnect from the server.
+     */
+    public void close() {
+        running = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.info("could not close connection: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                apply(read());
+            }
+        } catch (IOException e) {
+            if (running) {
+                log.warning("spectator connection lost: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Read the next message body.
+     * @return the message, positioned at its type byte
+     * @throws IOException if the connection failed or closed
+     */
+    private ByteBuffer read() throws IOException {
+        length.clear();
+        fill(length);
+        int size = length.getInt(0);
+        if (body.capacity() < size) {
+            body = ByteBuffer.allocate(Math.max(size, body.capacity() * 2));
+        }
+        body.clear();
+        body.limit(size);
+        fill(body);
+        body.flip();
+        return body;
+    }
+
+    /**
+     * Read until a buffer is full.
+     * @param buf  the buffer
+     * @throws IOException if the connection failed or closed
+     */
+    private void fill(final ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new EOFException("server closed the connection");
+            }
+        }
+    }
+
+    /**
+     * Return the offset of the keyframe-specific fields in a message.
+     * @param msg  the message
+     * @return the offset following the ball states
+     */
+    private static int keyframeOffset(final ByteBuffer msg) {
+        int balls = msg.getInt(SpectatorServer.HEADER_SIZE - 4);
+        return SpectatorServer.HEADER_SIZE + balls * SpectatorServer.BALL_SIZE;
+    }
+
+    /**
+     * Apply a message to the mirror game.
+     * @param msg  the message, positioned at its type byte
+     */
+    private void apply(final ByteBuffer msg) {
+        byte type = msg.get();
+        long tick = msg.getLong();
+        int level = msg.getInt();
+        int score = msg.getInt();
+        int shots = msg.getInt();
+        boolean over = msg.get() != 0;
+        float[] balls = new float[msg.getInt() * 4];
+        for (int i = 0; i < balls.length; i++) {
+            balls[i] = msg.getFloat();
+        }
+        game.mirrorState(tick, level, score, shots, over, balls);
+        if (type == SpectatorServer.KEYFRAME) {
+            /* The world settings were fixed by the first keyframe. */
+            msg.position(msg.position() + 4 * 4);
+            int[] ids = new int[msg.getInt()];
+            float[] points = new float[ids.length * 4];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = msg.getInt();
+                for (int j = 0; j < 4; j++) {
+                    points[i * 4 + j] = msg.getFloat();
+                }
+            }
+            game.mirrorEdges(ids, points);
+        } else {
+            int count = msg.getInt();
+            for (int i = 0; i < count; i++) {
+                game.mirrorBreak(msg.getInt());
+            }
+        }
+        game.mirrorChanged();
+    }
+}
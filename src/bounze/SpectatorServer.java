@@ -0,0 +1,467 @@
+package bounze;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import lombok.extern.java.Log;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.pcollections.HashTreePSet;
+import org.pcollections.PSet;
+
+/**
+ * Streams a running game to any number of spectators over TCP.
+ *
+ * Every tick the simulation thread encodes one small message, either a
+ * keyframe with the full state or a delta with the edges broken since
+ * the previous tick, and hands it to the server thread. The server
+ * thread sends read-only duplicates of that one buffer to every
+ * spectator with non-blocking writes. Late joiners first get the latest
+ * keyframe and the deltas since. Spectators that fall too far behind
+ * skip ahead to the next keyframe.
+ *
+ * Each message is an int length followed by that many bytes: a type
+ * byte, the tick, level, score, shots, a game over byte, and the ball
+ * count with x, y, vx and vy per ball. A keyframe continues with the
+ * world width and height, the ball radius, the frame rate and the live
+ * edges as id, ax, ay, bx and by. A delta continues with the ids of
+ * broken edges.
+ */
+@Log
+public final class SpectatorServer implements Observer, Runnable {
+
+    /** Message type of a full state keyframe. */
+    static final byte KEYFRAME = 0;
+
+    /** Message type of a per-tick delta. */
+    static final byte DELTA = 1;
+
+    /** Bytes in a message's length prefix. */
+    static final int LENGTH_SIZE = 4;
+
+    /** Bytes of common fields, ending with the ball count. */
+    static final int HEADER_SIZE = 1 + 8 + 4 + 4 + 4 + 1 + 4;
+
+    /** Bytes per ball. */
+    static final int BALL_SIZE = 4 * 4;
+
+    /** Bytes per keyframe edge. */
+    private static final int EDGE_SIZE = 4 + 4 * 4;
+
+    /** Messages queued to one spectator before it is skipped ahead. */
+    private static final int MAX_PENDING = 128;
+
+    private final Game game;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+
+    /** Messages encoded by the simulation thread, awaiting sending. */
+    private final Queue<ByteBuffer> outbox
+        = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /** The thread running the server. */
+    private final Thread thread;
+
+    /** True until the server is closed. */
+    private volatile boolean running = true;
+
+    /* Simulation thread state: what spectators have already been sent. */
+    private PSet<Edge> sentEdges = HashTreePSet.empty();
+    private int sentLevel = -1;
+    private long keyframeTick;
+
+    /* Server thread state: what a new spectator needs to catch up. */
+    private ByteBuffer keyframe;
+    private final List<ByteBuffer> backlog = new ArrayList<ByteBuffer>();
+
+    /** Scratch space for discarding anything spectators send. */
+    private final ByteBuffer discard = ByteBuffer.allocate(256);
+
+    /**
+     * Start serving a game to spectators on this machine only.
+     * @param game  the game to broadcast
+     * @param port  the local port, or 0 for any free port
+     * @throws IOException if the server socket could not be opened
+     */
+    public SpectatorServer(final Game game, final int port)
+        throws IOException {
+        this(game, InetAddress.getByName(null), port);
+    }
+
+    /**
+     * Start serving a game to spectators.
+     * @param game     the game to broadcast
+     * @param address  the local address to listen on
+     * @param port     the local port, or 0 for any free port
+     * @throws IOException if the server socket could not be opened
+     */
+    public SpectatorServer(final Game game, final InetAddress address,
+                           final int port) throws IOException {
+        this.game = game;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.socket().bind(new InetSocketAddress(address, port));
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this, "bounze-spectators");
+        thread.setDaemon(true);
+        thread.start();
+        game.addObserver(this);
+    }
+
+    /**
+     * Return the port spectators connect to.
+     * @return the local port
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Stop broadcasting and disconnect all spectators.
+     */
+    public void close() {
+        game.deleteObserver(this);
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void update(final Observable o, final Object arg) {
+        if (!running) {
+            return;
+        }
+        PSet<Edge> live = game.getLiveEdges();
+        List<Edge> broken = new ArrayList<Edge>();
+        boolean restored = false;
+        if (live != sentEdges) {
+            for (Edge e : sentEdges) {
+                if (!live.contains(e)) {
+                    broken.add(e);
+                }
+            }
+            restored = live.size() + broken.size() != sentEdges.size();
+        }
+        long tick = game.getTick();
+        int interval = game.getSettings().getFps();
+        boolean key = restored || game.getLevel() != sentLevel
+            || tick - keyframeTick >= interval;
+        if (key) {
+            keyframeTick = tick;
+            outbox.add(encodeKeyframe(live));
+        } else {
+            outbox.add(encodeDelta(broken));
+        }
+        sentEdges = live;
+        sentLevel = game.getLevel();
+        selector.wakeup();
+    }
+
+    /**
+     * Encode a full state keyframe.
+     * @param live  the live edges
+     * @return the message, ready for reading
+     */
+    private ByteBuffer encodeKeyframe(final PSet<Edge> live) {
+        ByteBuffer buf = header(KEYFRAME,
+                                4 * 5 + live.size() * EDGE_SIZE);
+        Settings settings = game.getSettings();
+        buf.putInt(settings.getWidth());
+        buf.putInt(settings.getHeight());
+        buf.putFloat(settings.getBallRadius());
+        buf.putInt(settings.getFps());
+        buf.putInt(live.size());
+        for (Edge e : live) {
+            buf.putInt(e.getId());
+            buf.putFloat(e.getA().x);
+            buf.putFloat(e.getA().y);
+            buf.putFloat(e.getB().x);
+            buf.putFloat(e.getB().y);
+        }
+        buf.flip();
+        return buf.asReadOnlyBuffer();
+    }
+
+    /**
+     * Encode a delta from the previous tick.
+     * @param broken  the edges broken since the previous tick
+     * @return the message, ready for reading
+     */
+    private ByteBuffer encodeDelta(final List<Edge> broken) {
+        ByteBuffer buf = header(DELTA, 4 + broken.size() * 4);
+        buf.putInt(broken.size());
+        for (Edge e : broken) {
+            buf.putInt(e.getId());
+        }
+        buf.flip();
+        return buf.asReadOnlyBuffer();
+    }
+
+    /**
+     * Allocate a message and write the fields common to all messages.
+     * @param type  the message type
+     * @param body  bytes following the common fields
+     * @return the message buffer, positioned after the common fields
+     */
+    private ByteBuffer header(final byte type, final int body) {
+        List<Body> balls = game.getBalls();
+        int size = HEADER_SIZE + balls.size() * BALL_SIZE + body;
+        ByteBuffer buf = ByteBuffer.allocate(LENGTH_SIZE + size);
+        buf.putInt(size);
+        buf.put(type);
+        buf.putLong(game.getTick());
+        buf.putInt(game.getLevel());
+        buf.putInt(game.getScore());
+        buf.putInt(game.getShots());
+        byte over = 0;
+        if (game.isGameOver()) {
+            over = 1;
+        }
+        buf.put(over);
+        buf.putInt(balls.size());
+        for (Body b : balls) {
+            Vec2 p = b.getPosition();
+            Vec2 v = b.getLinearVelocity();
+            buf.putFloat(p.x);
+            buf.putFloat(p.y);
+            buf.putFloat(v.x);
+            buf.putFloat(v.y);
+        }
+        return buf;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    try {
+                        handle(key);
+                    } catch (RuntimeException e) {
+                        if (!(key.attachment() instanceof Spectator)) {
+                            throw e;
+                        }
+                        log.warning("dropping spectator: " + e);
+                        closeQuietly(key);
+                    }
+                }
+                selector.selectedKeys().clear();
+                ByteBuffer msg = outbox.poll();
+                while (msg != null) {
+                    broadcast(msg);
+                    msg = outbox.poll();
+                }
+            }
+        } catch (IOException e) {
+            log.warning("spectator server failed: " + e.getMessage());
+        } finally {
+            running = false;
+            game.deleteObserver(this);
+            outbox.clear();
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.info("could not close selector: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handle a ready selection key.
+     * @param key  the key
+     */
+    private void handle(final SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            try {
+                SocketChannel channel = server.accept();
+                if (channel != null) {
+                    accept(channel);
+                }
+            } catch (IOException e) {
+                log.warning("could not accept spectator: " + e.getMessage());
+            }
+            return;
+        }
+        Spectator s = (Spectator) key.attachment();
+        try {
+            if (key.isReadable()) {
+                discard.clear();
+                if (s.channel.read(discard) < 0) {
+                    closeQuietly(key);
+                    return;
+                }
+            }
+            if (key.isWritable()) {
+                flush(s);
+            }
+        } catch (IOException e) {
+            closeQuietly(key);
+        }
+    }
+
+    /**
+     * Register a new spectator and catch it up. A connection that fails
+     * to set up is closed without affecting anyone else.
+     * @param channel  the spectator's connection
+     */
+    private void accept(final SocketChannel channel) {
+        Spectator s = new Spectator(channel);
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            s.key = channel.register(selector, SelectionKey.OP_READ, s);
+        } catch (IOException e) {
+            log.info("could not set up spectator: " + e.getMessage());
+            try {
+                channel.close();
+            } catch (IOException ce) {
+                log.info("could not close spectator: " + ce.getMessage());
+            }
+            return;
+        }
+        if (keyframe != null) {
+            enqueue(s, keyframe);
+            for (ByteBuffer msg : backlog) {
+                enqueue(s, msg);
+            }
+        }
+        try {
+            flush(s);
+        } catch (IOException e) {
+            closeQuietly(s.key);
+        } catch (RuntimeException e) {
+            log.warning("dropping spectator: " + e);
+            closeQuietly(s.key);
+        }
+    }
+
+    /**
+     * Send a message to every spectator and remember it for late joiners.
+     * @param msg  the message
+     */
+    private void broadcast(final ByteBuffer msg) {
+        if (msg.get(LENGTH_SIZE) == KEYFRAME) {
+            keyframe = msg;
+            backlog.clear();
+        } else {
+            backlog.add(msg);
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Spectator) {
+                Spectator s = (Spectator) key.attachment();
+                enqueue(s, msg);
+                try {
+                    flush(s);
+                } catch (IOException e) {
+                    closeQuietly(key);
+                } catch (RuntimeException e) {
+                    log.warning("dropping spectator: " + e);
+                    closeQuietly(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue a message for a spectator without copying its contents.
+     * @param s    the spectator
+     * @param msg  the message
+     */
+    private void enqueue(final Spectator s, final ByteBuffer msg) {
+        boolean key = msg.get(LENGTH_SIZE) == KEYFRAME;
+        if (s.skipping && !key) {
+            return;
+        }
+        s.skipping = false;
+        if (s.pending.size() >= MAX_PENDING) {
+            /* Keep any half-sent message so the stream stays framed. */
+            ByteBuffer head = s.pending.peekFirst();
+            s.pending.clear();
+            if (head.position() > 0) {
+                s.pending.add(head);
+            }
+            if (!key) {
+                s.skipping = true;
+                return;
+            }
+        }
+        s.pending.add(msg.duplicate());
+    }
+
+    /**
+     * Write as much queued data to a spectator as it will take.
+     * @param s  the spectator
+     * @throws IOException if the write failed
+     */
+    private void flush(final Spectator s) throws IOException {
+        while (!s.pending.isEmpty()) {
+            ByteBuffer head = s.pending.peekFirst();
+            s.channel.write(head);
+            if (head.hasRemaining()) {
+                s.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            s.pending.removeFirst();
+        }
+        s.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Cancel a key and close its channel, ignoring errors.
+     * @param key  the key
+     */
+    private static void closeQuietly(final SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.info("could not close spectator: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A connected spectator.
+     */
+    private static final class Spectator {
+
+        /** The spectator's connection. */
+        private final SocketChannel channel;
+
+        /** The connection's selection key. */
+        private SelectionKey key;
+
+        /** Messages not yet fully sent, oldest first. */
+        private final Deque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+
+        /** True while skipping deltas until the next keyframe. */
+        private boolean skipping = false;
+
+        /**
+         * Track a newly connected spectator.
+         * @param channel  the spectator's connection
+         */
+        Spectator(final SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
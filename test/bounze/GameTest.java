@@ -0,0 +1,89 @@
+package bounze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.junit.Test;
+
+/**
+ * Checks level changes and the end of the game.
+ */
+public class GameTest {
+
+    /**
+     * Clearing a level with the last shot doesn't end the game while the
+     * next level is still being prepared.
+     */
+    @Test
+    public void lastShotClearsLevelWhilePending() {
+        /* A big arena, so the next level takes a while to prepare. */
+        Game game = new Game(Settings.stress(300, 1), false);
+        install(game);
+        game.clear();
+        game.step();
+        install(game);
+        assertEquals(1, game.getLevel());
+
+        while (game.getShots() > 1) {
+            shoot(game);
+        }
+        game.clear();
+        shoot(game);
+        assumeTrue(game.cleared());
+        assertEquals(0, game.getShots());
+        assertFalse(game.isGameOver());
+
+        install(game);
+        assertEquals(2, game.getLevel());
+        assertTrue(game.getShots() > 0);
+        assertFalse(game.isGameOver());
+    }
+
+    /**
+     * A new level starts with the balls at rest where its layout was
+     * scored from, wherever the last shot left them.
+     */
+    @Test
+    public void newLevelSendsBallsHome() {
+        Game game = new Game(Settings.stress(10, 1), false);
+        install(game);
+        Body ball = game.getBalls().get(0);
+        Vec2 home = ball.getPosition().clone();
+        ball.setTransform(home.add(new Vec2(1, 1)), 0f);
+        ball.setLinearVelocity(new Vec2(1, 0));
+        game.clear();
+        game.step();
+        install(game);
+        assertEquals(1, game.getLevel());
+        assertEquals(home.x, ball.getPosition().x, 0f);
+        assertEquals(home.y, ball.getPosition().y, 0f);
+        assertEquals(0f, ball.getLinearVelocity().length(), 0f);
+    }
+
+    /**
+     * Step until the due level is in place.
+     * @param game  the game
+     */
+    private static void install(final Game game) {
+        while (game.cleared()) {
+            game.step();
+        }
+    }
+
+    /**
+     * Take a shot and stop the balls right after it.
+     * @param game  the game
+     */
+    private static void shoot(final Game game) {
+        game.shoot(new Vec2(1, 0));
+        game.step();
+        for (Body b : game.getBalls()) {
+            b.setLinearVelocity(new Vec2(0, 0));
+        }
+        game.step();
+    }
+}
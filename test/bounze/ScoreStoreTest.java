@@ -0,0 +1,185 @@
+package bounze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import org.jbox2d.common.Vec2;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the high-score log's recovery, compaction and indexing.
+ */
+public class ScoreStoreTest {
+
+    /* Log layout, as written by ScoreStore. */
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_SIZE = 24;
+
+    /** Ticks allowed for a random game to end. */
+    private static final int GAME_TICKS = 20000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    /**
+     * Choose a fresh log file.
+     */
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "scores");
+    }
+
+    /**
+     * Results survive reopening, ranked best first.
+     * @throws Exception on failure
+     */
+    @Test
+    public void reopen() throws Exception {
+        write(10, 30, 20);
+        ScoreStore store = new ScoreStore(file);
+        List<ScoreStore.Entry> top = store.getTop();
+        store.close();
+        assertEquals(3, top.size());
+        assertEquals(30, top.get(0).getScore());
+        assertEquals(20, top.get(1).getScore());
+        assertEquals(10, top.get(2).getScore());
+        assertEquals(HEADER_SIZE + 3 * RECORD_SIZE, file.length());
+    }
+
+    /**
+     * A partly written last record is dropped and truncated away.
+     * @throws Exception on failure
+     */
+    @Test
+    public void tornTail() throws Exception {
+        write(10, 20, 30);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - 5);
+        raf.close();
+        ScoreStore store = new ScoreStore(file);
+        List<ScoreStore.Entry> top = store.getTop();
+        store.close();
+        assertEquals(2, top.size());
+        assertEquals(20, top.get(0).getScore());
+        assertEquals(HEADER_SIZE + 2 * RECORD_SIZE, file.length());
+    }
+
+    /**
+     * A record failing its checksum is rejected along with the rest.
+     * @throws Exception on failure
+     */
+    @Test
+    public void badChecksum() throws Exception {
+        write(10, 20, 30);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(HEADER_SIZE + RECORD_SIZE + 2);
+        int b = raf.read();
+        raf.seek(HEADER_SIZE + RECORD_SIZE + 2);
+        raf.write(b ^ 0xff);
+        raf.close();
+        ScoreStore store = new ScoreStore(file);
+        List<ScoreStore.Entry> top = store.getTop();
+        store.close();
+        assertEquals(1, top.size());
+        assertEquals(10, top.get(0).getScore());
+        assertEquals(HEADER_SIZE + RECORD_SIZE, file.length());
+    }
+
+    /**
+     * A compacted log left only under its temporary name is recovered.
+     * @throws Exception on failure
+     */
+    @Test
+    public void recoverTemp() throws Exception {
+        write(10, 20);
+        File temp = new File(file.getPath() + ".tmp");
+        assertTrue(file.renameTo(temp));
+        ScoreStore store = new ScoreStore(file);
+        List<ScoreStore.Entry> top = store.getTop();
+        store.close();
+        assertEquals(2, top.size());
+        assertTrue(file.exists());
+        assertFalse(temp.exists());
+    }
+
+    /**
+     * Compaction keeps only the top list and the best per seed.
+     * @throws Exception on failure
+     */
+    @Test
+    public void compaction() throws Exception {
+        int seeds = 10;
+        int count = 10000;
+        ScoreStore store = new ScoreStore(file);
+        for (int i = 0; i < count; i++) {
+            store.record(i, 1, i % seeds, 1);
+        }
+        store.close();
+        List<ScoreStore.Entry> top = store.getTop();
+        assertEquals(count - 1, top.get(0).getScore());
+        assertEquals(count - seeds + 3, store.getBest(3).getScore());
+        assertTrue(file.length() <= HEADER_SIZE + 100 * RECORD_SIZE);
+
+        ScoreStore reopened = new ScoreStore(file);
+        List<ScoreStore.Entry> again = reopened.getTop();
+        reopened.close();
+        assertEquals(top.size(), again.size());
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals(top.get(i).getScore(), again.get(i).getScore());
+        }
+        assertEquals(count - seeds + 3, reopened.getBest(3).getScore());
+    }
+
+    /**
+     * A game is recorded once, even if undo is asked for after it ends.
+     * @throws Exception on failure
+     */
+    @Test
+    public void recordOncePerGame() throws Exception {
+        ScoreStore store = new ScoreStore(file);
+        Game game = new Game(new Settings(), false);
+        store.attach(game);
+        for (int i = 0; i < GAME_TICKS && !game.isGameOver(); i++) {
+            if (game.ballStopped()) {
+                game.shoot(new Vec2(1, (float) Math.sin(i)));
+            }
+            game.step();
+        }
+        assertTrue(game.isGameOver());
+        for (int i = 0; i < 3; i++) {
+            game.undo();
+            game.step();
+            game.step();
+        }
+        store.close();
+        List<ScoreStore.Entry> top = store.getTop();
+        assertEquals(1, top.size());
+        assertEquals(game.getSeed(), top.get(0).getSeed());
+        assertEquals(game.getShotsFired(), top.get(0).getShots());
+    }
+
+    /**
+     * Write a log holding the given scores.
+     * @param scores  the scores, in order
+     * @throws IOException if the log could not be written
+     * @throws InterruptedException if interrupted while closing
+     */
+    private void write(final int... scores)
+        throws IOException, InterruptedException {
+        ScoreStore store = new ScoreStore(file);
+        for (int s : scores) {
+            store.record(s, 1, s, 1);
+        }
+        store.close();
+    }
+}
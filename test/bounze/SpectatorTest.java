@@ -0,0 +1,183 @@
+package bounze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Spectates games over loopback and checks the mirror against the game.
+ */
+public class SpectatorTest {
+
+    /** Milliseconds to wait for a mirror to catch up. */
+    private static final long TIMEOUT = 10000;
+
+    private Game game;
+    private SpectatorServer server;
+    private final List<SpectatorClient> clients
+        = new ArrayList<SpectatorClient>();
+
+    /**
+     * Start a three-ball game with its first level in place and serve it.
+     * @throws IOException if the server could not start
+     */
+    @Before
+    public void setUp() throws IOException {
+        game = new Game(Settings.stress(10, 3), false);
+        while (game.cleared()) {
+            game.step();
+        }
+        server = new SpectatorServer(game, 0);
+        game.step();
+    }
+
+    /**
+     * Disconnect everything.
+     */
+    @After
+    public void tearDown() {
+        for (SpectatorClient c : clients) {
+            c.close();
+        }
+        server.close();
+    }
+
+    /**
+     * The mirror follows edges, balls and the scoreboard.
+     * @throws Exception on failure
+     */
+    @Test
+    public void mirror() throws Exception {
+        Game mirror = watch();
+        assertEquals(3, mirror.getBalls().size());
+        assertEquals(game.getSettings().getBallRadius(),
+                     mirror.getSettings().getBallRadius(), 0f);
+        assertEquals(game.getSettings().getFps(),
+                     mirror.getSettings().getFps());
+        play(200);
+        assertMirrors(mirror);
+    }
+
+    /**
+     * Edges restored by an undo reach the mirror.
+     * @throws Exception on failure
+     */
+    @Test
+    public void undo() throws Exception {
+        Game mirror = watch();
+        int before;
+        int tries = 0;
+        do {
+            before = game.getLiveEdges().size();
+            shoot();
+        } while (game.getLiveEdges().size() == before && ++tries < 20);
+        assertTrue("no shot broke an edge",
+                   game.getLiveEdges().size() < before);
+        assertMirrors(mirror);
+        game.undo();
+        game.step();
+        assertEquals(before, game.getLiveEdges().size());
+        assertMirrors(mirror);
+    }
+
+    /**
+     * A spectator joining mid-game catches up.
+     * @throws Exception on failure
+     */
+    @Test
+    public void lateJoiner() throws Exception {
+        Game early = watch();
+        play(100);
+        Game late = watch();
+        play(10);
+        assertMirrors(early);
+        assertMirrors(late);
+    }
+
+    /**
+     * Connect a new spectator.
+     * @return the spectator's mirror game
+     * @throws IOException if the connection failed
+     */
+    private Game watch() throws IOException {
+        SpectatorClient client = new SpectatorClient("localhost",
+                                                     server.getPort());
+        client.start();
+        clients.add(client);
+        return client.getGame();
+    }
+
+    /**
+     * Take a shot and step until the balls stop.
+     */
+    private void shoot() {
+        game.shoot(new Vec2(1, (float) Math.sin(game.getTick())));
+        game.step();
+        while (!game.ballStopped()) {
+            game.step();
+        }
+    }
+
+    /**
+     * Step the game, shooting whenever the balls stop.
+     * @param ticks  the number of ticks
+     */
+    private void play(final int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            if (game.ballStopped()) {
+                game.shoot(new Vec2(1, (float) Math.sin(i)));
+            }
+            game.step();
+        }
+    }
+
+    /**
+     * Wait for a mirror to reach the game's tick, then compare them.
+     * @param mirror  the mirror game
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void assertMirrors(final Game mirror)
+        throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (!ids(mirror).equals(ids(game))
+               || mirror.getTick() != game.getTick()) {
+            assertTrue("mirror fell behind",
+                       System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+        assertEquals(game.getLevel(), mirror.getLevel());
+        assertEquals(game.getScore(), mirror.getScore());
+        assertEquals(game.getShots(), mirror.getShots());
+        assertEquals(game.isGameOver(), mirror.isGameOver());
+        assertEquals(game.getBalls().size(), mirror.getBalls().size());
+        for (int i = 0; i < game.getBalls().size(); i++) {
+            Body b = game.getBalls().get(i);
+            Body m = mirror.getBalls().get(i);
+            assertEquals(b.getPosition().x, m.getPosition().x, 0f);
+            assertEquals(b.getPosition().y, m.getPosition().y, 0f);
+        }
+    }
+
+    /**
+     * Return the identifiers of a game's live edges.
+     * @param g  the game
+     * @return the identifiers
+     */
+    private static Set<Integer> ids(final Game g) {
+        Set<Integer> ids = new TreeSet<Integer>();
+        for (Edge e : g.getLiveEdges()) {
+            ids.add(e.getId());
+        }
+        return ids;
+    }
+}